@@ -0,0 +1,179 @@
+package us.rall.lox;
+
+import java.util.List;
+
+/**
+ * Prints a syntax tree as nested, parenthesized prefix forms, one top-level
+ * statement per line. Used to inspect the tree the passes produce.
+ */
+class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
+    /**
+     * Print a program.
+     *
+     * @param statements The statements of the program.
+     * @return The printed program.
+     */
+    String print(List<Stmt> statements) {
+        StringBuilder builder = new StringBuilder();
+        for (Stmt stmt : statements) {
+            builder.append(stmt.accept(this)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        return parenthesize("=", expr.getName().lexeme(), expr.getValue());
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+        return parenthesize(expr.getOperator().lexeme(), expr.getLeft(), expr.getRight());
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        return parenthesize("call", expr.getCallee(), expr.getArguments());
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return parenthesize(".", expr.getObject(), expr.getName().lexeme());
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+        return parenthesize("group", expr.getExpression());
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+        if (Rope.isString(expr.getValue())) {
+            return "\"%s\"".formatted(expr.getValue());
+        }
+        return Interpreter.stringify(expr.getValue());
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        return parenthesize(expr.getOperator().lexeme(), expr.getLeft(), expr.getRight());
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        return parenthesize("=", expr.getObject(), expr.getName().lexeme(), expr.getValue());
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        return parenthesize("super", expr.getMethod().lexeme());
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        return "this";
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+        return parenthesize(expr.getOperator().lexeme(), expr.getRight());
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        return expr.getName().lexeme();
+    }
+
+    @Override
+    public String visitBlockStmt(Stmt.Block stmt) {
+        return parenthesize("block", stmt.getStatements());
+    }
+
+    @Override
+    public String visitClassStmt(Stmt.Class stmt) {
+        if (stmt.getSuperclass() == null) {
+            return parenthesize("class", stmt.getName().lexeme(), stmt.getMethods());
+        }
+        return parenthesize("class", stmt.getName().lexeme(), "<", stmt.getSuperclass(), stmt.getMethods());
+    }
+
+    @Override
+    public String visitExpressionStmt(Stmt.Expression stmt) {
+        return parenthesize(";", stmt.getExpression());
+    }
+
+    @Override
+    public String visitFunctionStmt(Stmt.Function stmt) {
+        StringBuilder params = new StringBuilder("(");
+        for (Token param : stmt.getParams()) {
+            if (params.length() > 1) {
+                params.append(' ');
+            }
+            params.append(param.lexeme());
+        }
+        params.append(')');
+        return parenthesize("fun", stmt.getName().lexeme(), params, stmt.getBody());
+    }
+
+    @Override
+    public String visitIfStmt(Stmt.If stmt) {
+        if (stmt.getElseBranch() == null) {
+            return parenthesize("if", stmt.getCondition(), stmt.getThenBranch());
+        }
+        return parenthesize("if", stmt.getCondition(), stmt.getThenBranch(), stmt.getElseBranch());
+    }
+
+    @Override
+    public String visitPrintStmt(Stmt.Print stmt) {
+        return parenthesize("print", stmt.getExpression());
+    }
+
+    @Override
+    public String visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getValue() == null) {
+            return "(return)";
+        }
+        return parenthesize("return", stmt.getValue());
+    }
+
+    @Override
+    public String visitWhileStmt(Stmt.While stmt) {
+        return parenthesize("while", stmt.getCondition(), stmt.getBody());
+    }
+
+    @Override
+    public String visitVarStmt(Stmt.Var stmt) {
+        if (stmt.getInitializer() == null) {
+            return parenthesize("var", stmt.getName().lexeme());
+        }
+        return parenthesize("var", stmt.getName().lexeme(), stmt.getInitializer());
+    }
+
+    /**
+     * Print a form. Parts may be expressions, statements, lists of either, or
+     * plain text.
+     */
+    private String parenthesize(String name, Object... parts) {
+        StringBuilder builder = new StringBuilder("(").append(name);
+        for (Object part : parts) {
+            if (part instanceof List<?> list) {
+                for (Object element : list) {
+                    builder.append(' ').append(print(element));
+                }
+            } else {
+                builder.append(' ').append(print(part));
+            }
+        }
+        return builder.append(')').toString();
+    }
+
+    private String print(Object part) {
+        if (part instanceof Expr expr) {
+            return expr.accept(this);
+        }
+        if (part instanceof Stmt stmt) {
+            return stmt.accept(this);
+        }
+        return part.toString();
+    }
+}
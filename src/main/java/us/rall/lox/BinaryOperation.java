@@ -0,0 +1,217 @@
+package us.rall.lox;
+
+/**
+ * The implementation of a binary expression, specialized on the operand types
+ * the expression has seen. Every {@link Expr.Binary} starts out
+ * {@link #UNINITIALIZED} and rewrites itself on its first evaluation into an
+ * operation for its operator and operand types, such as
+ * {@link #ADD_NUMBERS}. A specialized operation only guards its operand types;
+ * on a miss the expression falls back to {@link #GENERIC} for good.
+ */
+enum BinaryOperation {
+    UNINITIALIZED {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            BinaryOperation operation = specialize(expr.getOperator().type(), left, right);
+            expr.setOperation(operation);
+            return operation.execute(expr, left, right);
+        }
+    },
+    GENERIC {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            Token operator = expr.getOperator();
+            return switch (operator.type()) {
+                case PLUS -> {
+                    if (left instanceof Double && right instanceof Double) {
+                        yield (double) left + (double) right;
+                    } else if (Rope.isString(left) && Rope.isString(right)) {
+                        yield Rope.concat(left, right);
+                    } else {
+                        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                    }
+                }
+                case MINUS -> {
+                    checkNumberOperands(operator, left, right);
+                    yield (double) left - (double) right;
+                }
+                case STAR -> {
+                    checkNumberOperands(operator, left, right);
+                    yield (double) left * (double) right;
+                }
+                case SLASH -> {
+                    checkNumberOperands(operator, left, right);
+                    yield (double) left / (double) right;
+                }
+                case GREATER -> {
+                    checkNumberOperands(operator, left, right);
+                    yield (double) left > (double) right;
+                }
+                case GREATER_EQUAL -> {
+                    checkNumberOperands(operator, left, right);
+                    yield (double) left >= (double) right;
+                }
+                case LESS -> {
+                    checkNumberOperands(operator, left, right);
+                    yield (double) left < (double) right;
+                }
+                case LESS_EQUAL -> {
+                    checkNumberOperands(operator, left, right);
+                    yield (double) left <= (double) right;
+                }
+                case BANG_EQUAL -> !Interpreter.isEqual(left, right);
+                case EQUAL_EQUAL -> Interpreter.isEqual(left, right);
+                default -> null;
+            };
+        }
+    },
+    ADD_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l + r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    ADD_STRINGS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Rope.isString(left) && Rope.isString(right)) {
+                return Rope.concat(left, right);
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    SUBTRACT_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l - r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    MULTIPLY_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l * r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    DIVIDE_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l / r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    GREATER_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l > r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    GREATER_EQUAL_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l >= r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    LESS_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l < r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    LESS_EQUAL_NUMBERS {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double l && right instanceof Double r) {
+                return l <= r;
+            }
+            return generalize(expr, left, right);
+        }
+    },
+    EQUAL {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.isEqual(left, right);
+        }
+    },
+    NOT_EQUAL {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return !Interpreter.isEqual(left, right);
+        }
+    };
+
+    /**
+     * Evaluate a binary expression.
+     *
+     * @param expr  The expression being evaluated, which may be rewritten.
+     * @param left  The value of the left operand.
+     * @param right The value of the right operand.
+     * @return The value of the expression.
+     */
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    /**
+     * Choose the operation for an operator given the first operands it sees.
+     *
+     * @param operator The operator type.
+     * @param left     The value of the left operand.
+     * @param right    The value of the right operand.
+     * @return The specialized operation, or {@link #GENERIC} if there is none.
+     */
+    static BinaryOperation specialize(TokenType operator, Object left, Object right) {
+        if (operator == TokenType.EQUAL_EQUAL) {
+            return EQUAL;
+        }
+        if (operator == TokenType.BANG_EQUAL) {
+            return NOT_EQUAL;
+        }
+        if (Rope.isString(left) && Rope.isString(right)) {
+            return operator == TokenType.PLUS ? ADD_STRINGS : GENERIC;
+        }
+        if (!(left instanceof Double && right instanceof Double)) {
+            return GENERIC;
+        }
+        return switch (operator) {
+            case PLUS -> ADD_NUMBERS;
+            case MINUS -> SUBTRACT_NUMBERS;
+            case STAR -> MULTIPLY_NUMBERS;
+            case SLASH -> DIVIDE_NUMBERS;
+            case GREATER -> GREATER_NUMBERS;
+            case GREATER_EQUAL -> GREATER_EQUAL_NUMBERS;
+            case LESS -> LESS_NUMBERS;
+            case LESS_EQUAL -> LESS_EQUAL_NUMBERS;
+            default -> GENERIC;
+        };
+    }
+
+    private static Object generalize(Expr.Binary expr, Object left, Object right) {
+        expr.setOperation(GENERIC);
+        return GENERIC.execute(expr, left, right);
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return;
+        }
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
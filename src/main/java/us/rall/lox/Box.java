@@ -0,0 +1,23 @@
+package us.rall.lox;
+
+/**
+ * A cell holding a local variable that a closure captures and that is assigned
+ * after it is declared. The frame slot and every closure over the variable hold
+ * the same box, so they all see each assignment. Variables that are captured
+ * but never assigned are copied into closures by value instead.
+ */
+class Box {
+    private Object value;
+
+    Box(Object value) {
+        this.value = value;
+    }
+
+    Object getValue() {
+        return value;
+    }
+
+    void setValue(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,13 @@
+package us.rall.lox;
+
+/**
+ * A variable a function captures from the scope it is declared in. When the
+ * function is created, the value in that slot, or the {@link Box} holding it,
+ * is copied into the function's closure.
+ *
+ * @param depth The number of frames between the declaration of the function
+ *              and the variable.
+ * @param slot  The slot of the variable in its frame.
+ */
+record Capture(int depth, int slot) {
+}
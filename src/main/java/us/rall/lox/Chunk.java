@@ -0,0 +1,147 @@
+package us.rall.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled Lox function: its word code, the source line of every word, its
+ * constant pool and the inline caches of its property instructions.
+ */
+class Chunk {
+    private final String name;
+    private final int arity;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    private int[] code = new int[16];
+    private int[] lines = new int[16];
+    private int count = 0;
+    private int upvalueCount = 0;
+    private int maxStack = 0;
+    private int cacheCount = 0;
+    private Object[] constantPool;
+    private Object[] caches;
+
+    Chunk(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    /**
+     * Append a word to the chunk.
+     *
+     * @param word The opcode or operand.
+     * @param line The source line of the word.
+     */
+    void write(int word, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = word;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * Overwrite a previously written word, used to patch jump offsets.
+     *
+     * @param offset The index of the word.
+     * @param word   The new value.
+     */
+    void patch(int offset, int word) {
+        code[offset] = word;
+    }
+
+    /**
+     * Add a value to the constant pool, reusing an equal constant if possible.
+     * Numbers and strings are deduplicated; chunks are always added anew.
+     *
+     * @param value The constant.
+     * @return The index of the constant.
+     */
+    int addConstant(Object value) {
+        if (value instanceof Chunk) {
+            constants.add(value);
+            return constants.size() - 1;
+        }
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Reserve an inline cache for an instruction. The {@link VM} decides what
+     * the cache holds; it starts out empty.
+     *
+     * @return The index of the cache.
+     */
+    int addCache() {
+        return cacheCount++;
+    }
+
+    /**
+     * Finish writing the chunk, trimming the code and freezing the constant pool.
+     *
+     * @param upvalueCount The number of upvalues closures over this function capture.
+     * @param maxStack     The maximum stack height the function reaches.
+     */
+    void finish(int upvalueCount, int maxStack) {
+        this.upvalueCount = upvalueCount;
+        this.maxStack = maxStack;
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constantPool = constants.toArray();
+        caches = new Object[cacheCount];
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getArity() {
+        return arity;
+    }
+
+    int[] getCode() {
+        return code;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int[] getLines() {
+        return lines;
+    }
+
+    Object[] getConstants() {
+        return constantPool;
+    }
+
+    Object[] getCaches() {
+        return caches;
+    }
+
+    int getUpvalueCount() {
+        return upvalueCount;
+    }
+
+    int getMaxStack() {
+        return maxStack;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) {
+            return "<script>";
+        }
+        return "<fn %s>".formatted(name);
+    }
+}
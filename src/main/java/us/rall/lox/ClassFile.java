@@ -0,0 +1,496 @@
+package us.rall.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, covering what the {@link Jit}
+ * generates. Classes are written at version 49, which the JVM still verifies
+ * by type inference, so no stack map frames are needed.
+ */
+final class ClassFile {
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ASTORE = 0x3a;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int SWAP = 0x5f;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int NEW = 0xbb;
+    static final int CHECKCAST = 0xc0;
+    static final int WIDE = 0xc4;
+    static final int IFNULL = 0xc6;
+
+    private static final int VERSION = 49;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;
+    private final int access;
+    private final int thisClass;
+    private final int superClass;
+    private final List<Integer> interfaces = new ArrayList<>();
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * Start a class.
+     *
+     * @param access     The access flags of the class.
+     * @param name       The internal name of the class.
+     * @param superName  The internal name of its superclass.
+     * @param interfaces The internal names of the interfaces it implements.
+     */
+    ClassFile(int access, String name, String superName, String... interfaces) {
+        this.access = access;
+        this.thisClass = classConstant(name);
+        this.superClass = classConstant(superName);
+        for (String interfaceName : interfaces) {
+            this.interfaces.add(classConstant(interfaceName));
+        }
+    }
+
+    /**
+     * Add a field.
+     *
+     * @param access     The access flags of the field.
+     * @param name       The name of the field.
+     * @param descriptor The type descriptor of the field.
+     */
+    void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        });
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Start a method. Its code is added to the class by {@link Code#end}.
+     *
+     * @param access     The access flags of the method.
+     * @param name       The name of the method.
+     * @param descriptor The method descriptor.
+     * @param maxLocals  The number of local variable slots used so far,
+     *                   including the receiver and parameters.
+     * @return The method's code.
+     */
+    Code method(int access, String name, String descriptor, int maxLocals) {
+        return new Code(access, name, descriptor, maxLocals);
+    }
+
+    /**
+     * Write out the class.
+     *
+     * @return The bytes of the class file.
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.size());
+            for (int index : interfaces) {
+                out.writeShort(index);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        });
+        return bytes.toByteArray();
+    }
+
+    private int utf8(String value) {
+        return constant("U" + value, () -> {
+            poolOut.writeByte(CONSTANT_UTF8);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    private int classConstant(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, () -> {
+            poolOut.writeByte(CONSTANT_CLASS);
+            poolOut.writeShort(nameIndex);
+        });
+    }
+
+    private int integer(int value) {
+        return constant("I" + value, () -> {
+            poolOut.writeByte(CONSTANT_INTEGER);
+            poolOut.writeInt(value);
+        });
+    }
+
+    private int string(String value) {
+        int valueIndex = utf8(value);
+        return constant("S" + value, () -> {
+            poolOut.writeByte(CONSTANT_STRING);
+            poolOut.writeShort(valueIndex);
+        });
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classConstant(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + " " + descriptor, () -> {
+            poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(descriptorIndex);
+        });
+        return constant("M" + tag + owner + "." + name + descriptor, () -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(nameAndType);
+        });
+    }
+
+    private int constant(String key, Writer writer) {
+        Integer index = poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        write(writer);
+        poolIndices.put(key, poolCount);
+        if (poolCount == 0xFFFF) {
+            throw new IllegalStateException("Constant pool overflow.");
+        }
+        return poolCount++;
+    }
+
+    private static void write(Writer writer) {
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Count the stack words a method descriptor's arguments take, not
+     * counting the receiver.
+     */
+    private static int argumentWords(String descriptor) {
+        int words = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == '[') {
+                while (descriptor.charAt(i) == '[') {
+                    i++;
+                }
+                if (descriptor.charAt(i) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                }
+                words++;
+            } else if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+                words++;
+            } else {
+                words += c == 'J' || c == 'D' ? 2 : 1;
+            }
+            i++;
+        }
+        return words;
+    }
+
+    private static int returnWords(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        return switch (c) {
+            case 'V' -> 0;
+            case 'J', 'D' -> 2;
+            default -> 1;
+        };
+    }
+
+    private interface Writer {
+        void write() throws IOException;
+    }
+
+    /**
+     * A position in a method's code that branches can target before it is
+     * placed.
+     */
+    static final class Label {
+        private int position = -1;
+        private final List<Integer> branches = new ArrayList<>();
+    }
+
+    /**
+     * The code of a method being written. Every instruction records its effect
+     * on the operand stack so the maximum depth can be computed.
+     */
+    final class Code {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int maxLocals;
+        private int stack = 0;
+        private int maxStack = 0;
+
+        private Code(int access, String name, String descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        /**
+         * Emit an instruction without operands.
+         *
+         * @param opcode The opcode.
+         * @param effect The net change in stack depth.
+         */
+        void op(int opcode, int effect) {
+            code.write(opcode);
+            adjust(effect);
+        }
+
+        /**
+         * Emit a load or store of a local variable slot.
+         *
+         * @param opcode {@link #ALOAD} or {@link #ASTORE}.
+         * @param slot   The local variable slot.
+         */
+        void local(int opcode, int slot) {
+            if (slot > 0xFF) {
+                code.write(WIDE);
+                code.write(opcode);
+                writeShort(slot);
+            } else {
+                code.write(opcode);
+                code.write(slot);
+            }
+            maxLocals = Math.max(maxLocals, slot + 1);
+            adjust(opcode == ALOAD ? 1 : -1);
+        }
+
+        /**
+         * Push an int constant.
+         *
+         * @param value The value.
+         */
+        void intConstant(int value) {
+            if (value >= -1 && value <= 5) {
+                code.write(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.write(SIPUSH);
+                writeShort(value);
+            } else {
+                code.write(LDC_W);
+                writeShort(integer(value));
+            }
+            adjust(1);
+        }
+
+        /**
+         * Push a string constant.
+         *
+         * @param value The value.
+         */
+        void stringConstant(String value) {
+            code.write(LDC_W);
+            writeShort(string(value));
+            adjust(1);
+        }
+
+        /**
+         * Push the {@link Class} object of a class.
+         *
+         * @param className The internal name of the class.
+         */
+        void classLiteral(String className) {
+            code.write(LDC_W);
+            writeShort(classConstant(className));
+            adjust(1);
+        }
+
+        /**
+         * Emit an instruction that takes a class operand.
+         *
+         * @param opcode    {@link #NEW} or {@link #CHECKCAST}.
+         * @param className The internal name of the class.
+         */
+        void type(int opcode, String className) {
+            code.write(opcode);
+            writeShort(classConstant(className));
+            adjust(opcode == NEW ? 1 : 0);
+        }
+
+        /**
+         * Emit a field access.
+         *
+         * @param opcode     {@link #GETFIELD}, {@link #PUTFIELD}, {@link #GETSTATIC}
+         *                   or {@link #PUTSTATIC}.
+         * @param owner      The internal name of the class declaring the field.
+         * @param name       The name of the field.
+         * @param descriptor The type descriptor of the field.
+         */
+        void field(int opcode, String owner, String name, String descriptor) {
+            code.write(opcode);
+            writeShort(member(CONSTANT_FIELDREF, owner, name, descriptor));
+            adjust(switch (opcode) {
+                case GETSTATIC -> 1;
+                case PUTSTATIC -> -1;
+                case GETFIELD -> 0;
+                default -> -2;
+            });
+        }
+
+        /**
+         * Emit a method invocation.
+         *
+         * @param opcode     The invoke opcode.
+         * @param owner      The internal name of the class declaring the method.
+         * @param name       The name of the method.
+         * @param descriptor The method descriptor.
+         */
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            int tag = opcode == INVOKEINTERFACE ? CONSTANT_INTERFACE_METHODREF : CONSTANT_METHODREF;
+            int arguments = argumentWords(descriptor);
+            code.write(opcode);
+            writeShort(member(tag, owner, name, descriptor));
+            if (opcode == INVOKEINTERFACE) {
+                code.write(arguments + 1);
+                code.write(0);
+            }
+            adjust(returnWords(descriptor) - arguments - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        /**
+         * Emit a branch.
+         *
+         * @param opcode The branch opcode.
+         * @param target The label to branch to.
+         */
+        void jump(int opcode, Label target) {
+            target.branches.add(code.size());
+            labels.add(target);
+            code.write(opcode);
+            writeShort(0);
+            adjust(opcode == GOTO ? 0 : -1);
+        }
+
+        /**
+         * Place a label at the current position.
+         *
+         * @param label The label.
+         */
+        void mark(Label label) {
+            label.position = code.size();
+        }
+
+        /**
+         * Allocate local variable slots that are not in use.
+         *
+         * @param count The number of slots.
+         * @return The first slot.
+         */
+        int newLocals(int count) {
+            int first = maxLocals;
+            maxLocals += count;
+            return first;
+        }
+
+        /**
+         * Finish the method and add it to the class.
+         */
+        void end() {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > 0xFFFF || maxLocals > 0xFFFF) {
+                throw new IllegalStateException("Method too large.");
+            }
+            for (Label label : labels) {
+                for (int branch : label.branches) {
+                    int offset = label.position - branch;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new IllegalStateException("Branch too far.");
+                    }
+                    bytes[branch + 1] = (byte) (offset >> 8);
+                    bytes[branch + 2] = (byte) offset;
+                }
+            }
+            ByteArrayOutputStream method = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(method);
+            write(() -> {
+                out.writeShort(access);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + bytes.length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                out.writeShort(0);
+                out.writeShort(0);
+            });
+            methods.add(method.toByteArray());
+        }
+
+        private void writeShort(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        private void adjust(int effect) {
+            stack += effect;
+            maxStack = Math.max(maxStack, stack);
+        }
+    }
+}
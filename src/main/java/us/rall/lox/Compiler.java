@@ -0,0 +1,606 @@
+package us.rall.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles resolved Lox statements into {@link Chunk}s for the {@link VM}.
+ * The {@link Resolver} has already reported static errors and located every
+ * variable, so the compiler only maps its frame slots onto stack slots, its
+ * captures onto upvalues, and names global declarations by their cells.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final Globals globals;
+    private FunctionScope current = null;
+    private int line = 0;
+
+    /**
+     * Create a compiler.
+     *
+     * @param globals The globals the statements were resolved against.
+     */
+    Compiler(Globals globals) {
+        this.globals = globals;
+    }
+
+    /**
+     * Compile a Lox program.
+     *
+     * @param statements The statements to compile.
+     * @return The chunk for the top-level script.
+     */
+    Chunk compile(List<Stmt> statements) {
+        current = new FunctionScope(null, FunctionType.SCRIPT, null, 0, List.of());
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emitReturn();
+        return endFunction();
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.getValue());
+        line = expr.getName().line();
+        setVariable(expr.getName(), expr.getDepth(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.getLeft());
+        compile(expr.getRight());
+        Token operator = expr.getOperator();
+        line = operator.line();
+        switch (operator.type()) {
+            case PLUS -> emit(OpCode.ADD);
+            case MINUS -> emit(OpCode.SUBTRACT);
+            case STAR -> emit(OpCode.MULTIPLY);
+            case SLASH -> emit(OpCode.DIVIDE);
+            case GREATER -> emit(OpCode.GREATER);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL);
+            case LESS -> emit(OpCode.LESS);
+            case LESS_EQUAL -> emit(OpCode.LESS_EQUAL);
+            case BANG_EQUAL -> {
+                emit(OpCode.EQUAL);
+                emit(OpCode.NOT);
+            }
+            case EQUAL_EQUAL -> emit(OpCode.EQUAL);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        List<Expr> arguments = expr.getArguments();
+        Expr callee = expr.getCallee();
+        boolean invoke = true;
+        if (callee instanceof Expr.Get get) {
+            compile(get.getObject());
+            line = get.getName().line();
+            emit(OpCode.PREPARE_INVOKE, nameConstant(get.getName()), current.chunk.addCache());
+        } else if (callee instanceof Expr.Super superExpr) {
+            compileSuperPair(superExpr);
+            emit(OpCode.PREPARE_SUPER, nameConstant(superExpr.getMethod()));
+        } else {
+            compile(callee);
+            invoke = false;
+        }
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+        line = expr.getParen().line();
+        if (invoke) {
+            emit(OpCode.INVOKE, arguments.size());
+        } else {
+            emit(OpCode.CALL, arguments.size());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.getObject());
+        line = expr.getName().line();
+        emit(OpCode.GET_PROPERTY, nameConstant(expr.getName()), current.chunk.addCache());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.getValue();
+        if (value == null) {
+            emit(OpCode.NIL);
+        } else if (value instanceof Boolean bool) {
+            emit(bool ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emit(OpCode.CONSTANT, current.chunk.addConstant(value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.getLeft());
+        if (expr.getOperator().type() == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.getRight());
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.getObject());
+        line = expr.getName().line();
+        int name = nameConstant(expr.getName());
+        if (!isSideEffectFree(expr.getValue())) {
+            // The tree-walker rejects a non-instance before evaluating the value.
+            emit(OpCode.CHECK_FIELDS, name);
+        }
+        compile(expr.getValue());
+        line = expr.getName().line();
+        emit(OpCode.SET_PROPERTY, name, current.chunk.addCache());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        compileSuperPair(expr);
+        emit(OpCode.GET_SUPER, nameConstant(expr.getMethod()));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.getKeyword().line();
+        getVariable(expr.getKeyword(), expr.getDepth(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.getRight());
+        Token operator = expr.getOperator();
+        line = operator.line();
+        switch (operator.type()) {
+            case MINUS -> emit(OpCode.NEGATE);
+            case BANG -> emit(OpCode.NOT);
+            default -> {
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.getName().line();
+        getVariable(expr.getName(), expr.getDepth(), expr.getSlot());
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.getStatements()) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        Token name = stmt.getName();
+        line = name.line();
+        emit(OpCode.CLASS, nameConstant(name));
+        defineVariable(name);
+        int depth = 0;
+        int slot = stmt.getSlot();
+        if (slot < 0) {
+            depth = -1;
+            slot = globals.index(name.lexeme());
+        }
+
+        Expr.Variable superclass = stmt.getSuperclass();
+        if (superclass != null) {
+            compile(superclass);
+            beginScope();
+            // The superclass value becomes the slot of the "super" local.
+            current.stackHeight--;
+            addLocal();
+            getVariable(name, depth, slot);
+            line = superclass.getName().line();
+            emit(OpCode.INHERIT);
+        }
+        getVariable(name, depth, slot);
+        for (Stmt.Function method : stmt.getMethods()) {
+            String methodName = method.getName().lexeme();
+            FunctionType type = methodName.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            compileFunction(method, type);
+            line = method.getName().line();
+            emit(OpCode.METHOD, nameConstant(method.getName()));
+        }
+        emit(OpCode.POP);
+        if (superclass != null) {
+            endScope();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.getExpression());
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        Token name = stmt.getName();
+        line = name.line();
+        boolean isLocal = current.scopeDepth > 0;
+        if (isLocal) {
+            // Let the function refer to itself before it is fully defined.
+            addLocal();
+        }
+        compileFunction(stmt, FunctionType.FUNCTION);
+        if (isLocal) {
+            // The closure fills the slot reserved above.
+            current.stackHeight--;
+        } else {
+            emit(OpCode.DEFINE_GLOBAL, globals.index(name.lexeme()));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.getCondition());
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.getThenBranch());
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        // The condition is still on the stack along the else path.
+        current.stackHeight++;
+        emit(OpCode.POP);
+        if (stmt.getElseBranch() != null) {
+            compile(stmt.getElseBranch());
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.getKeyword().line();
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL, 0);
+        } else if (stmt.getValue() != null) {
+            compile(stmt.getValue());
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.chunk.getCount();
+        compile(stmt.getCondition());
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.getBody());
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        current.stackHeight++;
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Token name = stmt.getName();
+        if (stmt.getInitializer() != null) {
+            compile(stmt.getInitializer());
+        } else {
+            emit(OpCode.NIL);
+        }
+        line = name.line();
+        if (current.scopeDepth > 0) {
+            // The initializer's value becomes the local's stack slot.
+            current.stackHeight--;
+            addLocal();
+        } else {
+            emit(OpCode.DEFINE_GLOBAL, globals.index(name.lexeme()));
+        }
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compileFunction(Stmt.Function declaration, FunctionType type) {
+        List<Token> params = declaration.getParams();
+        current = new FunctionScope(current, type, declaration.getName().lexeme(), params.size(),
+                declaration.getCaptures());
+        beginScope();
+        for (int i = 0; i < params.size(); i++) {
+            addLocal();
+        }
+        for (Stmt statement : declaration.getBody()) {
+            compile(statement);
+        }
+        emitReturn();
+        FunctionScope function = current;
+        Chunk chunk = endFunction();
+
+        line = declaration.getName().line();
+        emit(OpCode.CLOSURE, current.chunk.addConstant(chunk));
+        for (Capture capture : function.captures) {
+            if (capture.depth() == 0) {
+                int slot = current.slot(capture.slot());
+                current.locals.get(slot).isCaptured = true;
+                emitWord(1);
+                emitWord(slot);
+            } else {
+                emitWord(0);
+                emitWord(capture.slot());
+            }
+        }
+    }
+
+    /**
+     * Push {@code this} and the superclass of the current method.
+     */
+    private void compileSuperPair(Expr.Super expr) {
+        line = expr.getKeyword().line();
+        getVariable(expr.getKeyword(), expr.getThisDepth(), expr.getThisSlot());
+        getVariable(expr.getKeyword(), expr.getDepth(), expr.getSlot());
+        line = expr.getMethod().line();
+    }
+
+    private Chunk endFunction() {
+        FunctionScope function = current;
+        function.chunk.finish(function.captures.size(), function.maxStackHeight);
+        current = function.enclosing;
+        return function.chunk;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            Local local = locals.remove(locals.size() - 1);
+            // The local's slot is on the stack; pop it like a temporary.
+            emit(local.isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    private void addLocal() {
+        current.locals.add(new Local(current.scopeDepth));
+        current.adjustStack(1);
+    }
+
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            current.stackHeight--;
+            addLocal();
+        } else {
+            emit(OpCode.DEFINE_GLOBAL, globals.index(name.lexeme()));
+        }
+    }
+
+    /**
+     * Push a variable from where the resolver located it.
+     *
+     * @param name  The name of the variable, reported if a global is undefined.
+     * @param depth 0 for a slot of the current frame, 1 for a capture of the
+     *              current closure, or -1 for a global.
+     * @param slot  The frame slot, capture or global cell of the variable.
+     */
+    private void getVariable(Token name, int depth, int slot) {
+        switch (depth) {
+            case 0 -> emit(OpCode.GET_LOCAL, current.slot(slot));
+            case 1 -> emit(OpCode.GET_UPVALUE, slot);
+            default -> emit(OpCode.GET_GLOBAL, slot, current.chunk.addConstant(name));
+        }
+    }
+
+    /**
+     * Store the top of the stack in a variable, located as for
+     * {@link #getVariable(Token, int, int)}.
+     */
+    private void setVariable(Token name, int depth, int slot) {
+        switch (depth) {
+            case 0 -> emit(OpCode.SET_LOCAL, current.slot(slot));
+            case 1 -> emit(OpCode.SET_UPVALUE, slot);
+            default -> emit(OpCode.SET_GLOBAL, slot, current.chunk.addConstant(name));
+        }
+    }
+
+    /**
+     * Check whether evaluating an expression can neither fail nor have side effects.
+     */
+    private static boolean isSideEffectFree(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) {
+            return true;
+        }
+        if (expr instanceof Expr.Variable variable) {
+            return variable.getDepth() >= 0;
+        }
+        if (expr instanceof Expr.Grouping grouping) {
+            return isSideEffectFree(grouping.getExpression());
+        }
+        return false;
+    }
+
+    private int nameConstant(Token name) {
+        return current.chunk.addConstant(name.lexeme());
+    }
+
+    private void emit(int op) {
+        current.chunk.write(op, line);
+        current.adjustStack(stackEffect(op));
+    }
+
+    private void emit(int op, int operand) {
+        emit(op);
+        emitWord(operand);
+        switch (op) {
+            case OpCode.CALL -> current.adjustStack(-operand);
+            case OpCode.INVOKE -> current.adjustStack(-operand - 1);
+            default -> {
+            }
+        }
+    }
+
+    private void emit(int op, int operand, int operand2) {
+        emit(op, operand);
+        emitWord(operand2);
+    }
+
+    private void emitWord(int word) {
+        current.chunk.write(word, line);
+    }
+
+    private int emitJump(int op) {
+        emit(op, -1);
+        return current.chunk.getCount() - 1;
+    }
+
+    private void patchJump(int offset) {
+        current.chunk.patch(offset, current.chunk.getCount() - offset - 1);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP, -1);
+        int offset = current.chunk.getCount();
+        current.chunk.patch(offset - 1, offset - loopStart);
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL, 0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+    }
+
+    /**
+     * The fixed change in stack height caused by an instruction. Calls also pop
+     * their arguments, which {@link #emit(int, int)} accounts for.
+     */
+    private static int stackEffect(int op) {
+        return switch (op) {
+            case OpCode.CONSTANT, OpCode.NIL, OpCode.TRUE, OpCode.FALSE, OpCode.GET_LOCAL, OpCode.GET_GLOBAL,
+                    OpCode.GET_UPVALUE, OpCode.CLOSURE, OpCode.CLASS, OpCode.PREPARE_INVOKE -> 1;
+            case OpCode.POP, OpCode.DEFINE_GLOBAL, OpCode.SET_PROPERTY, OpCode.GET_SUPER, OpCode.EQUAL,
+                    OpCode.GREATER, OpCode.GREATER_EQUAL, OpCode.LESS, OpCode.LESS_EQUAL, OpCode.ADD,
+                    OpCode.SUBTRACT, OpCode.MULTIPLY, OpCode.DIVIDE, OpCode.PRINT, OpCode.CLOSE_UPVALUE,
+                    OpCode.RETURN, OpCode.INHERIT, OpCode.METHOD -> -1;
+            default -> 0;
+        };
+    }
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    /**
+     * The compiler state for a function being compiled.
+     */
+    private static class FunctionScope {
+        private final FunctionScope enclosing;
+        private final FunctionType type;
+        private final Chunk chunk;
+        private final List<Local> locals = new ArrayList<>();
+        private final List<Capture> captures;
+        /**
+         * Added to a slot of the resolver's frame to get its stack slot. The
+         * resolver gives methods their receiver in slot zero, as the stack
+         * does, but leaves the callee of other functions out of their frames.
+         */
+        private final int slotOffset;
+        private int scopeDepth = 0;
+        private int stackHeight = 0;
+        private int maxStackHeight = 0;
+
+        FunctionScope(FunctionScope enclosing, FunctionType type, String name, int arity, List<Capture> captures) {
+            this.enclosing = enclosing;
+            this.type = type;
+            this.chunk = new Chunk(name, arity);
+            this.captures = captures;
+            // Slot zero holds the receiver in methods and the callee otherwise.
+            boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INITIALIZER;
+            this.slotOffset = isMethod ? 0 : 1;
+            locals.add(new Local(0));
+            adjustStack(1);
+        }
+
+        int slot(int frameSlot) {
+            return frameSlot + slotOffset;
+        }
+
+        void adjustStack(int effect) {
+            stackHeight += effect;
+            maxStackHeight = Math.max(maxStackHeight, stackHeight);
+        }
+    }
+
+    /**
+     * A local variable occupying a stack slot.
+     */
+    private static class Local {
+        private final int depth;
+        private boolean isCaptured = false;
+
+        Local(int depth) {
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package us.rall.lox;
+
+/**
+ * How the execution of a statement ended. A return unwinds by passing
+ * {@link #RETURN} back up through the enclosing statements to the function
+ * being called, which takes the returned value from the {@link Interpreter}.
+ */
+enum Completion {
+    NORMAL,
+    RETURN
+}
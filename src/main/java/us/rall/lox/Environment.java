@@ -1,21 +1,20 @@
 package us.rall.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * Represents a Lox environment.
+ * Represents a Lox environment: a fixed-size frame of local variable slots.
+ * The {@link Resolver} lays out each block and function body, so every local
+ * is addressed by its slot index rather than by name. The outermost frame of a
+ * function is its closure, which holds only the variables it captures.
  */
 public class Environment {
-    private final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private Environment enclosing;
+    private final Object[] values;
 
-    public Environment() {
-        enclosing = null;
-    }
-
-    public Environment(Environment enclosing) {
+    public Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        this.values = new Object[size];
     }
 
     public Environment getEnclosing() {
@@ -23,71 +22,62 @@ public class Environment {
     }
 
     /**
-     * Get a variable by name.
+     * Check whether the environment has room for a frame.
      *
-     * @param name The name of the variable.
-     * @return The value of the variable.
+     * @param size The size of the frame.
+     * @return Whether the frame fits.
      */
-    Object get(Token name) {
-        String lexeme = name.lexeme();
-        if (values.containsKey(lexeme)) {
-            return values.get(lexeme);
-        }
-        if (enclosing != null) {
-            return enclosing.get(name);
-        }
-        throw new RuntimeError(name, "Undefined variable '%s'.".formatted(lexeme));
+    boolean fits(int size) {
+        return values.length >= size;
     }
 
     /**
-     * Assign a value to a variable.
+     * Reuse the environment as a new frame. Its slots must be empty.
      *
-     * @param name  The name of the variable.
-     * @param value The value of the variable.
+     * @param enclosing The enclosing environment of the new frame.
      */
-    void assign(Token name, Object value) {
-        String lexeme = name.lexeme();
-        if (values.containsKey(lexeme)) {
-            values.put(lexeme, value);
-            return;
-        }
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-        throw new RuntimeError(name, "Undefined variable'%s'.".formatted(lexeme));
+    void reuse(Environment enclosing) {
+        this.enclosing = enclosing;
+    }
+
+    /**
+     * Empty every slot, so the environment keeps nothing alive while unused.
+     */
+    void clear() {
+        enclosing = null;
+        Arrays.fill(values, null);
     }
 
     /**
      * Assign a value to a variable in an ancestor environment.
      *
      * @param distance The number of ancestor environments.
-     * @param name     The name of the variable.
+     * @param slot     The slot of the variable.
      * @param value    The value of the variable.
      */
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme(), value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).values[slot] = value;
     }
 
     /**
      * Define a variable.
      *
-     * @param name  The name of the variable.
+     * @param slot  The slot of the variable.
      * @param value The value of the variable.
      */
-    void define(String name, Object value) {
-        values.put(name, value);
+    void define(int slot, Object value) {
+        values[slot] = value;
     }
 
     /**
-     * Get a variable by name and number of ancestor environments.
+     * Get a variable by slot and number of ancestor environments.
      *
      * @param distance The number of ancestor environments.
-     * @param name     The name of the variable.
+     * @param slot     The slot of the variable.
      * @return The value of the variable.
      */
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).values[slot];
     }
 
     private Environment ancestor(int distance) {
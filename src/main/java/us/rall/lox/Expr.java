@@ -124,6 +124,9 @@ abstract class Expr {
     static class Assign extends Expr {
         private final Token name;
         private final Expr value;
+        private int depth = -1;
+        private int slot = -1;
+        private boolean boxed;
 
         Assign(Token name, Expr value) {
             this.name = name;
@@ -142,6 +145,30 @@ abstract class Expr {
         public Expr getValue() {
             return value;
         }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public boolean isBoxed() {
+            return boxed;
+        }
+
+        public void setBoxed(boolean boxed) {
+            this.boxed = boxed;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
     }
 
     /**
@@ -151,6 +178,7 @@ abstract class Expr {
         private final Expr left;
         private final Token operator;
         private final Expr right;
+        private BinaryOperation operation = BinaryOperation.UNINITIALIZED;
 
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -174,6 +202,14 @@ abstract class Expr {
         public Expr getRight() {
             return right;
         }
+
+        public BinaryOperation getOperation() {
+            return operation;
+        }
+
+        public void setOperation(BinaryOperation operation) {
+            this.operation = operation;
+        }
     }
 
     /**
@@ -183,6 +219,7 @@ abstract class Expr {
         private final Expr callee;
         private final Token paren;
         private final List<Expr> arguments;
+        private LoxCallable target;
 
         Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
@@ -206,6 +243,14 @@ abstract class Expr {
         public List<Expr> getArguments() {
             return arguments;
         }
+
+        public LoxCallable getTarget() {
+            return target;
+        }
+
+        public void setTarget(LoxCallable target) {
+            this.target = target;
+        }
     }
 
     /**
@@ -214,6 +259,7 @@ abstract class Expr {
     static class Get extends Expr {
         private final Expr object;
         private final Token name;
+        private final PropertyCache.Get cache = new PropertyCache.Get();
 
         Get(Expr object, Token name) {
             this.object = object;
@@ -232,6 +278,10 @@ abstract class Expr {
         public Token getName() {
             return name;
         }
+
+        public PropertyCache.Get getCache() {
+            return cache;
+        }
     }
 
     /**
@@ -313,6 +363,7 @@ abstract class Expr {
         private final Expr object;
         private final Token name;
         private final Expr value;
+        private final PropertyCache.Set cache = new PropertyCache.Set();
 
         Set(Expr object, Token name, Expr value) {
             this.object = object;
@@ -336,6 +387,10 @@ abstract class Expr {
         public Expr getValue() {
             return value;
         }
+
+        public PropertyCache.Set getCache() {
+            return cache;
+        }
     }
 
     /**
@@ -344,6 +399,12 @@ abstract class Expr {
     static class Super extends Expr {
         private final Token keyword;
         private final Token method;
+        private int depth = -1;
+        private int slot = -1;
+        private int thisDepth = -1;
+        private int thisSlot = -1;
+        private LoxClass targetClass;
+        private LoxFunction target;
 
         Super(Token keyword, Token method) {
             this.keyword = keyword;
@@ -362,6 +423,54 @@ abstract class Expr {
         public Token getMethod() {
             return method;
         }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
+
+        public int getThisDepth() {
+            return thisDepth;
+        }
+
+        public void setThisDepth(int thisDepth) {
+            this.thisDepth = thisDepth;
+        }
+
+        public int getThisSlot() {
+            return thisSlot;
+        }
+
+        public void setThisSlot(int thisSlot) {
+            this.thisSlot = thisSlot;
+        }
+
+        public LoxClass getTargetClass() {
+            return targetClass;
+        }
+
+        public void setTargetClass(LoxClass targetClass) {
+            this.targetClass = targetClass;
+        }
+
+        public LoxFunction getTarget() {
+            return target;
+        }
+
+        public void setTarget(LoxFunction target) {
+            this.target = target;
+        }
     }
 
     /**
@@ -369,6 +478,8 @@ abstract class Expr {
      */
     static class This extends Expr {
         private final Token keyword;
+        private int depth = -1;
+        private int slot = -1;
 
         This(Token keyword) {
             this.keyword = keyword;
@@ -382,6 +493,22 @@ abstract class Expr {
         public Token getKeyword() {
             return keyword;
         }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
     }
 
     /**
@@ -415,6 +542,9 @@ abstract class Expr {
      */
     static class Variable extends Expr {
         private final Token name;
+        private int depth = -1;
+        private int slot = -1;
+        private boolean boxed;
 
         Variable(Token name) {
             this.name = name;
@@ -428,5 +558,29 @@ abstract class Expr {
         public Token getName() {
             return name;
         }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public void setDepth(int depth) {
+            this.depth = depth;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public boolean isBoxed() {
+            return boxed;
+        }
+
+        public void setBoxed(boolean boxed) {
+            this.boxed = boxed;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
     }
 }
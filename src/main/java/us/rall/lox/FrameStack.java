@@ -0,0 +1,54 @@
+package us.rall.lox;
+
+import java.util.Arrays;
+
+/**
+ * The frames of the Lox function calls in progress. A frame is never used
+ * after its call returns, since closures copy the variables they capture
+ * rather than keeping the frame, so each frame is kept and reused by the next
+ * call made at the same depth instead of being allocated every time.
+ */
+class FrameStack {
+    private Environment[] frames = new Environment[64];
+    private int depth = 0;
+
+    /**
+     * Take a frame for a call.
+     *
+     * @param closure The closure of the function being called.
+     * @param size    The size of the function's frame.
+     * @return The frame, with every slot empty.
+     */
+    Environment push(Environment closure, int size) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        Environment frame = frames[depth];
+        if (frame == null || !frame.fits(size)) {
+            frame = new Environment(closure, size);
+            frames[depth] = frame;
+        } else {
+            frame.reuse(closure);
+        }
+        depth++;
+        return frame;
+    }
+
+    /**
+     * Give back the frame of the call that just returned.
+     */
+    void pop() {
+        depth--;
+        frames[depth].clear();
+    }
+
+    /**
+     * Give back every frame, after a runtime error unwound the calls that
+     * were using them.
+     */
+    void reset() {
+        while (depth > 0) {
+            pop();
+        }
+    }
+}
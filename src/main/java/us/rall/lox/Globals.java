@@ -0,0 +1,93 @@
+package us.rall.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The global variables of a Lox interpreter. Each global name gets a cell in
+ * a table the first time it is referenced, and the {@link Resolver} stores the
+ * cell's index in every use of the name, so only declarations look globals up
+ * by name. Globals are late bound: a cell stays {@link #UNDEFINED} until its
+ * declaration runs, and using it before then is a runtime error.
+ */
+class Globals {
+    /**
+     * The value of a cell whose global has not been defined.
+     */
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    private Object[] values = new Object[64];
+
+    /**
+     * Find the cell of a global, creating it if the name is new.
+     *
+     * @param name The name of the variable.
+     * @return The index of the variable's cell.
+     */
+    int index(String name) {
+        Integer index = indices.get(name);
+        if (index != null) {
+            return index;
+        }
+        index = indices.size();
+        if (index == values.length) {
+            values = Arrays.copyOf(values, index * 2);
+        }
+        values[index] = UNDEFINED;
+        indices.put(name, index);
+        return index;
+    }
+
+    /**
+     * Get a variable by its cell.
+     *
+     * @param index The index of the variable's cell.
+     * @param name  The name of the variable.
+     * @return The value of the variable.
+     */
+    Object get(int index, Token name) {
+        Object value = values[index];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '%s'.".formatted(name.lexeme()));
+        }
+        return value;
+    }
+
+    /**
+     * Assign a value to a variable by its cell.
+     *
+     * @param index The index of the variable's cell.
+     * @param name  The name of the variable.
+     * @param value The value of the variable.
+     */
+    void assign(int index, Token name, Object value) {
+        if (values[index] == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable'%s'.".formatted(name.lexeme()));
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Define a variable.
+     *
+     * @param name  The name of the variable.
+     * @param value The value of the variable.
+     */
+    void define(String name, Object value) {
+        // The table may grow while the cell is made, so find the cell first.
+        int index = index(name);
+        values[index] = value;
+    }
+
+    /**
+     * Define a variable by its cell.
+     *
+     * @param index The index of the variable's cell.
+     * @param value The value of the variable.
+     */
+    void define(int index, Object value) {
+        values[index] = value;
+    }
+}
@@ -8,12 +8,33 @@ import java.util.Map;
 /**
  * A tree-walk interpreter for Lox.
  */
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    private final Environment globals = new Environment();
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    private Environment environment = globals;
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
 
-    Interpreter() {
+    private final Globals globals = new Globals();
+    /**
+     * The innermost local frame, or null while executing top-level code.
+     */
+    private Environment environment = null;
+    private final FrameStack frames = new FrameStack();
+    /**
+     * The value of the return statement being unwound.
+     */
+    private Object returnValue = null;
+    /**
+     * Compiles hot functions to JVM bytecode, or null if only the tree-walker
+     * runs.
+     */
+    private Jit jit = null;
+    private final Output output;
+
+    /**
+     * Create an interpreter.
+     *
+     * @param output Where print statements write.
+     */
+    Interpreter(Output output) {
+        this.output = output;
         globals.define("clock", new LoxCallable() {
             @Override
             public int arity() {
@@ -22,6 +43,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double) System.currentTimeMillis() / 1000.0;
             }
 
@@ -32,28 +58,61 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         });
     }
 
-    private static void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) {
-            return;
-        }
-        throw new RuntimeError(operator, "Operator must be a number.");
+    /**
+     * Compile functions to JVM bytecode once they are called often enough.
+     */
+    void enableJit() {
+        jit = new Jit();
+    }
+
+    Jit getJit() {
+        return jit;
+    }
+
+    Globals getGlobals() {
+        return globals;
+    }
+
+    FrameStack getFrames() {
+        return frames;
     }
 
-    private static void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) {
+    Output getOutput() {
+        return output;
+    }
+
+    static void checkNumberOperand(Token operator, Object operand) {
+        if (operand instanceof Double) {
             return;
         }
-        throw new RuntimeError(operator, "Operands must be numbers.");
+        throw new RuntimeError(operator, "Operator must be a number.");
     }
 
-    private static boolean isEqual(Object left, Object right) {
+    static boolean isEqual(Object left, Object right) {
         if (left == null) {
             return right == null;
         }
+        if (left instanceof String l && right instanceof String r) {
+            return isEqualString(l, r);
+        }
+        if (left instanceof Rope || right instanceof Rope) {
+            return Rope.isEqual(left, right);
+        }
         return left.equals(right);
     }
 
-    private static boolean isTruthy(Object object) {
+    /**
+     * Check whether two strings are equal. Literals and names are interned by
+     * the scanner, so equal strings are usually the same object. Otherwise the
+     * hash codes, which strings cache, rule out most unequal strings without
+     * comparing their characters.
+     */
+    static boolean isEqualString(String left, String right) {
+        return left == right || left.length() == right.length() && left.hashCode() == right.hashCode()
+                && left.equals(right);
+    }
+
+    static boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -63,11 +122,23 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private static String stringify(Object object) {
+    /**
+     * Check whether a number is an integer that {@link Double#toString} writes
+     * without an exponent, so it prints as its digits alone.
+     */
+    static boolean isPlainInteger(double number) {
+        return number == (long) number && Math.abs(number) < 1e7
+                && Double.doubleToRawLongBits(number) != NEGATIVE_ZERO_BITS;
+    }
+
+    static String stringify(Object object) {
         if (object == null) {
             return "nil";
         }
-        if (object instanceof Double) {
+        if (object instanceof Double number) {
+            if (isPlainInteger(number)) {
+                return Long.toString((long) (double) number);
+            }
             String text = object.toString();
             if (text.endsWith(".0")) {
                 return text.substring(0, text.length() - 2);
@@ -88,29 +159,26 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         } catch (RuntimeError e) {
+            environment = null;
+            frames.reset();
+            output.flush();
             Lox.runtimeError(e);
+        } finally {
+            output.flush();
         }
     }
 
-    /**
-     * Resolve Lox expression.
-     *
-     * @param expr  The expression to resolve.
-     * @param depth The scope depth of the expression.
-     */
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.getValue());
         Token name = expr.getName();
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, name, value);
+        int depth = expr.getDepth();
+        if (expr.isBoxed()) {
+            ((Box) environment.getAt(depth, expr.getSlot())).setValue(value);
+        } else if (depth >= 0) {
+            environment.assignAt(depth, expr.getSlot(), value);
         } else {
-            globals.assign(name, value);
+            globals.assign(expr.getSlot(), name, value);
         }
         return value;
     }
@@ -119,76 +187,269 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.getLeft());
         Object right = evaluate(expr.getRight());
-        Token operator = expr.getOperator();
-        return switch (operator.type()) {
-            case PLUS -> {
-                if (left instanceof Double && right instanceof Double) {
-                    yield (double) left + (double) right;
-                } else if (left instanceof String && right instanceof String) {
-                    yield "%s%s".formatted(left, right);
-                } else {
-                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
-                }
-            }
-            case MINUS -> {
-                checkNumberOperands(operator, left, right);
-                yield (double) left - (double) right;
-            }
-            case STAR -> {
-                checkNumberOperands(operator, left, right);
-                yield (double) left * (double) right;
-            }
-            case SLASH -> {
-                checkNumberOperands(operator, left, right);
-                yield (double) left / (double) right;
-            }
-            case GREATER -> {
-                checkNumberOperands(operator, left, right);
-                yield (double) left > (double) right;
-            }
-            case GREATER_EQUAL -> {
-                checkNumberOperands(operator, left, right);
-                yield (double) left >= (double) right;
-            }
-            case LESS -> {
-                checkNumberOperands(operator, left, right);
-                yield (double) left < (double) right;
-            }
-            case LESS_EQUAL -> {
-                checkNumberOperands(operator, left, right);
-                yield (double) left <= (double) right;
-            }
-            case BANG_EQUAL -> !isEqual(left, right);
-            case EQUAL_EQUAL -> isEqual(left, right);
-            default -> null;
-        };
+        return expr.getOperation().execute(expr, left, right);
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.getCallee());
+        return call(expr, false);
+    }
+
+    /**
+     * Evaluate a call expression.
+     *
+     * @param expr The call expression.
+     * @param tail Whether the call is in tail position. A tail call to a Lox
+     *             function is not made but returned as a {@link TailCall}.
+     * @return The result of the call, or the tail call to make.
+     */
+    private Object call(Expr.Call expr, boolean tail) {
+        Expr calleeExpr = expr.getCallee();
+        if (calleeExpr instanceof Expr.Get get) {
+            return invokeProperty(expr, get, tail);
+        }
+        if (calleeExpr instanceof Expr.Super superExpr) {
+            LoxClass superclass = (LoxClass) environment.getAt(superExpr.getDepth(), superExpr.getSlot());
+            LoxFunction method = findSuperMethod(superExpr, superclass);
+            LoxInstance object = (LoxInstance) environment.getAt(superExpr.getThisDepth(), superExpr.getThisSlot());
+            return invokeMethod(expr, method, object, tail);
+        }
+        return callValue(expr, evaluate(calleeExpr), tail);
+    }
+
+    /**
+     * Call a property of an object. A method is invoked on the object
+     * directly, without binding it to the object first.
+     *
+     * @param expr The call expression.
+     * @param get  The property the call is made on.
+     * @param tail Whether the call is in tail position.
+     * @return The result of the call, or the tail call to make.
+     */
+    private Object invokeProperty(Expr.Call expr, Expr.Get get, boolean tail) {
+        Object object = evaluate(get.getObject());
+        LoxFunction method = findMethod(get, object);
+        if (method == null) {
+            return callValue(expr, getProperty(get, object), tail);
+        }
+        return invokeMethod(expr, method, (LoxInstance) object, tail);
+    }
+
+    /**
+     * Find the method a property of an object resolves to, for a call made on
+     * the property.
+     *
+     * @param expr   The property.
+     * @param object The object.
+     * @return The unbound method, or null if the property is a field.
+     */
+    static LoxFunction findMethod(Expr.Get expr, Object object) {
+        if (object instanceof LoxInstance instance) {
+            return expr.getCache().method(instance, expr.getName());
+        }
+        throw new RuntimeError(expr.getName(), "Only instances have properties.");
+    }
+
+    /**
+     * Read a property of an object.
+     *
+     * @param expr   The property.
+     * @param object The object.
+     * @return The field value, or the method bound to the object.
+     */
+    static Object getProperty(Expr.Get expr, Object object) {
+        if (object instanceof LoxInstance instance) {
+            return expr.getCache().get(instance, expr.getName());
+        }
+        throw new RuntimeError(expr.getName(), "Only instances have properties.");
+    }
+
+    /**
+     * Check that the object of a property assignment can have fields.
+     *
+     * @param expr   The property assignment.
+     * @param object The object.
+     * @return The object as an instance.
+     */
+    static LoxInstance checkInstance(Expr.Set expr, Object object) {
+        if (object instanceof LoxInstance instance) {
+            return instance;
+        }
+        throw new RuntimeError(expr.getName(), "Only instances have fields.");
+    }
+
+    /**
+     * Evaluate the arguments of a call and invoke a method with them.
+     *
+     * @param expr     The call expression.
+     * @param method   The unbound method.
+     * @param instance The receiver.
+     * @param tail     Whether the call is in tail position.
+     * @return The result of the call, or the tail call to make.
+     */
+    private Object invokeMethod(Expr.Call expr, LoxFunction method, LoxInstance instance, boolean tail) {
+        List<Expr> arguments = expr.getArguments();
+        int count = arguments.size();
+        if (tail || count > LoxCallable.MAX_DIRECT_ARGUMENTS) {
+            return invokeMethod(expr, method, instance, evaluateArguments(expr), tail);
+        }
+        Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+        Object d = count > 3 ? evaluate(arguments.get(3)) : null;
+        return invokeMethod(expr, method, instance, a, b, c, d);
+    }
+
+    /**
+     * Invoke a method on an instance after checking the number of arguments.
+     *
+     * @param expr      The call expression.
+     * @param method    The unbound method.
+     * @param instance  The receiver.
+     * @param arguments The arguments to the call.
+     * @param tail      Whether the call is in tail position.
+     * @return The result of the call, or the tail call to make.
+     */
+    Object invokeMethod(Expr.Call expr, LoxFunction method, LoxInstance instance, List<Object> arguments,
+            boolean tail) {
+        checkArity(expr, method, arguments.size());
+        if (tail) {
+            return new TailCall(method, instance, arguments);
+        }
+        return method.invoke(this, instance, arguments);
+    }
+
+    /**
+     * Invoke a method on an instance with the arguments of a call that has
+     * at most {@link LoxCallable#MAX_DIRECT_ARGUMENTS} of them, after checking
+     * their number. The unused arguments are null.
+     *
+     * @param expr     The call expression.
+     * @param method   The unbound method.
+     * @param instance The receiver.
+     * @return The result of the call.
+     */
+    Object invokeMethod(Expr.Call expr, LoxFunction method, LoxInstance instance, Object a, Object b, Object c,
+            Object d) {
+        checkArity(expr, method, expr.getArguments().size());
+        return method.invoke(this, instance, a, b, c, d);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.getArguments()) {
             arguments.add(evaluate(argument));
         }
+        return arguments;
+    }
+
+    /**
+     * Evaluate the arguments of a call and call a value with them.
+     *
+     * @param expr   The call expression.
+     * @param callee The value being called.
+     * @param tail   Whether the call is in tail position.
+     * @return The result of the call, or the tail call to make.
+     */
+    private Object callValue(Expr.Call expr, Object callee, boolean tail) {
+        List<Expr> arguments = expr.getArguments();
+        int count = arguments.size();
+        if (tail || count > LoxCallable.MAX_DIRECT_ARGUMENTS) {
+            return callValue(expr, callee, evaluateArguments(expr), tail);
+        }
+        Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+        Object d = count > 3 ? evaluate(arguments.get(3)) : null;
+        return callValue(expr, callee, a, b, c, d);
+    }
+
+    /**
+     * Call a value after checking that it is callable with the arguments. A
+     * call with at most {@link LoxCallable#MAX_DIRECT_ARGUMENTS} arguments
+     * that is not in tail position is made with the fixed-arity overload
+     * instead.
+     *
+     * @param expr      The call expression.
+     * @param callee    The value being called.
+     * @param arguments The arguments to the call.
+     * @param tail      Whether the call is in tail position.
+     * @return The result of the call, or the tail call to make.
+     */
+    Object callValue(Expr.Call expr, Object callee, List<Object> arguments, boolean tail) {
+        LoxCallable function = checkTarget(expr, callee);
+        if (tail && function instanceof LoxFunction loxFunction) {
+            return loxFunction.tailCall(arguments);
+        }
+        return function.call(this, arguments);
+    }
+
+    /**
+     * Call a value with the arguments of a call that has at most
+     * {@link LoxCallable#MAX_DIRECT_ARGUMENTS} of them. The unused arguments
+     * are null.
+     *
+     * @param expr   The call expression.
+     * @param callee The value being called.
+     * @return The result of the call.
+     */
+    Object callValue(Expr.Call expr, Object callee, Object a, Object b, Object c, Object d) {
+        LoxCallable function = checkTarget(expr, callee);
+        return switch (expr.getArguments().size()) {
+            case 0 -> function.call0(this);
+            case 1 -> function.call1(this, a);
+            case 2 -> function.call2(this, a, b);
+            case 3 -> function.call3(this, a, b, c);
+            default -> function.call4(this, a, b, c, d);
+        };
+    }
+
+    /**
+     * Check that a value can be called by a call expression, unless it is the
+     * callable the call has already checked.
+     *
+     * @param expr   The call expression.
+     * @param callee The value being called.
+     * @return The value as a callable.
+     */
+    private static LoxCallable checkTarget(Expr.Call expr, Object callee) {
+        LoxCallable target = expr.getTarget();
+        if (callee == target) {
+            return target;
+        }
+        LoxCallable function = checkCallable(expr, callee, expr.getArguments().size());
+        if (target == null) {
+            expr.setTarget(function);
+        }
+        return function;
+    }
+
+    /**
+     * Check that a value can be called with the arguments of a call.
+     *
+     * @param expr   The call expression.
+     * @param callee The value being called.
+     * @param count  The number of arguments.
+     * @return The value as a callable.
+     */
+    static LoxCallable checkCallable(Expr.Call expr, Object callee, int count) {
         if (!(callee instanceof LoxCallable function)) {
             throw new RuntimeError(expr.getParen(), "Can only call functions and classes.");
         }
-        if (arguments.size() != function.arity()) {
+        checkArity(expr, function, count);
+        return function;
+    }
+
+    private static void checkArity(Expr.Call expr, LoxCallable function, int count) {
+        if (count != function.arity()) {
             throw new RuntimeError(expr.getParen(),
-                    "Expected %s arguments but got %s.".formatted(function.arity(), arguments.size()));
+                    "Expected %s arguments but got %s.".formatted(function.arity(), count));
         }
-        return function.call(this, arguments);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.getObject());
-        Token name = expr.getName();
-        if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(name);
-        }
-        throw new RuntimeError(name, "Only instances have properties.");
+        return getProperty(expr, evaluate(expr.getObject()));
     }
 
     @Override
@@ -216,31 +477,43 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
-        Object object = evaluate(expr.getObject());
-        Token name = expr.getName();
-        if (!(object instanceof LoxInstance)) {
-            throw new RuntimeError(name, "Only instances have fields.");
-        }
+        LoxInstance instance = checkInstance(expr, evaluate(expr.getObject()));
         Object value = evaluate(expr.getValue());
-        ((LoxInstance) object).set(name, value);
+        expr.getCache().set(instance, expr.getName(), value);
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expr.getMethod().lexeme());
-        if (method == null) {
-            throw new RuntimeError(expr.getMethod(), "Undefined property '%s'.".formatted(expr.getMethod().lexeme()));
-        }
+        LoxClass superclass = (LoxClass) environment.getAt(expr.getDepth(), expr.getSlot());
+        LoxFunction method = findSuperMethod(expr, superclass);
+        LoxInstance object = (LoxInstance) environment.getAt(expr.getThisDepth(), expr.getThisSlot());
         return method.bind(object);
     }
 
+    /**
+     * Find the method a super expression refers to.
+     *
+     * @param expr       The super expression.
+     * @param superclass The superclass of the class the expression is in.
+     * @return The unbound method.
+     */
+    static LoxFunction findSuperMethod(Expr.Super expr, LoxClass superclass) {
+        // The superclass only changes if the class declaration runs again.
+        if (superclass != expr.getTargetClass()) {
+            LoxFunction method = superclass.findMethod(expr.getMethod().lexeme());
+            if (method == null) {
+                throw new RuntimeError(expr.getMethod(), "Undefined property '%s'.".formatted(expr.getMethod().lexeme()));
+            }
+            expr.setTargetClass(superclass);
+            expr.setTarget(method);
+        }
+        return expr.getTarget();
+    }
+
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.getKeyword(), expr);
+        return lookUpVariable(expr.getKeyword(), expr.getDepth(), expr.getSlot());
     }
 
     @Override
@@ -259,15 +532,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.getName(), expr);
+        Object value = lookUpVariable(expr.getName(), expr.getDepth(), expr.getSlot());
+        if (expr.isBoxed()) {
+            return ((Box) value).getValue();
+        }
+        return value;
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme());
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
         }
-        return globals.get(name);
+        return globals.get(slot, name);
     }
 
     private Object evaluate(Expr expr) {
@@ -275,13 +551,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.getStatements(), new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.getFrameSize() == 0) {
+            // The block's locals, if it has any, live in the enclosing frame.
+            return execute(stmt.getStatements());
+        }
+        return executeBlock(stmt.getStatements(), new Environment(environment, stmt.getFrameSize()));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.getSuperclass() != null) {
             superclass = evaluate(stmt.getSuperclass());
@@ -290,96 +569,170 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
         Token stmtName = stmt.getName();
-        environment.define(stmtName.lexeme(), null);
-        if (stmt.getSuperclass() != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+        Box box = stmt.isBoxed() ? new Box(null) : null;
+        define(stmt.getSlot(), stmtName, box);
+        if (stmt.getFrameSize() > 0) {
+            environment = new Environment(environment, stmt.getFrameSize());
+        }
+        if (superclass != null) {
+            environment.define(stmt.getSuperSlot(), superclass);
         }
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.getMethods()) {
             String methodLexeme = method.getName().lexeme();
-            LoxFunction function = new LoxFunction(method, environment, methodLexeme.equals("init"));
+            Environment closure = newClosure(method);
+            capture(method, closure);
+            LoxFunction function = LoxFunction.method(method, closure, methodLexeme.equals("init"));
             methods.put(methodLexeme, function);
         }
-        LoxClass klass = new LoxClass(stmtName.lexeme(), (LoxClass) superclass, methods);
-        if (superclass != null) {
+        LoxClass klass = new LoxClass(stmtName.lexeme(), (LoxClass) superclass, methods, stmt.getFieldCount());
+        if (stmt.getFrameSize() > 0) {
             environment = environment.getEnclosing();
         }
-        environment.assign(stmtName, klass);
-        return null;
+        if (box != null) {
+            box.setValue(klass);
+        } else {
+            define(stmt.getSlot(), stmtName, klass);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.getExpression());
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.getName().lexeme(), function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        Environment closure = newClosure(stmt);
+        LoxFunction function = new LoxFunction(stmt, closure, false);
+        define(stmt.getSlot(), stmt.getName(), stmt.isBoxed() ? new Box(function) : function);
+        // Captured once the function is defined, so that it can capture itself.
+        capture(stmt, closure);
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Create the closure of a function.
+     *
+     * @param declaration The declaration of the function.
+     * @return The empty closure, or null if the function captures nothing.
+     */
+    private static Environment newClosure(Stmt.Function declaration) {
+        int size = declaration.getCaptures().size();
+        return size == 0 ? null : new Environment(null, size);
+    }
+
+    /**
+     * Copy the variables a function captures into its closure.
+     *
+     * @param declaration The declaration of the function.
+     * @param closure     The closure.
+     */
+    private void capture(Stmt.Function declaration, Environment closure) {
+        List<Capture> captures = declaration.getCaptures();
+        for (int i = 0; i < captures.size(); i++) {
+            Capture capture = captures.get(i);
+            closure.define(i, environment.getAt(capture.depth(), capture.slot()));
+        }
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.getCondition()))) {
-            execute(stmt.getThenBranch());
+            return execute(stmt.getThenBranch());
         } else if (stmt.getElseBranch() != null) {
-            execute(stmt.getElseBranch());
+            return execute(stmt.getElseBranch());
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.getExpression());
-        System.out.println(stringify(value));
-        return null;
+        output.printValue(value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.getValue() != null) {
+        if (stmt.isTailCall()) {
+            value = call((Expr.Call) stmt.getValue(), true);
+        } else if (stmt.getValue() != null) {
             value = evaluate(stmt.getValue());
         }
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.getCondition()))) {
-            execute(stmt.getBody());
+            if (execute(stmt.getBody()) == Completion.RETURN) {
+                return Completion.RETURN;
+            }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         Expr initializer = stmt.getInitializer();
         if (initializer != null) {
             value = evaluate(initializer);
         }
-        environment.define(stmt.getName().lexeme(), value);
-        return null;
+        define(stmt.getSlot(), stmt.getName(), stmt.isBoxed() ? new Box(value) : value);
+        return Completion.NORMAL;
+    }
+
+    private void define(int slot, Token name, Object value) {
+        if (slot < 0) {
+            globals.define(name.lexeme(), value);
+        } else {
+            environment.define(slot, value);
+        }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    /**
+     * Execute statements in a new environment. The environment is not restored
+     * if a runtime error escapes, since {@link #interpret} resets it.
+     *
+     * @param statements  The statements to execute.
+     * @param environment The environment to execute them in.
+     * @return {@link Completion#RETURN} if a return statement ran.
+     */
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
-        try {
-            this.environment = environment;
-            for (Stmt stmt : statements) {
-                execute(stmt);
+        this.environment = environment;
+        Completion completion = execute(statements);
+        this.environment = previous;
+        return completion;
+    }
+
+    private Completion execute(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            if (execute(stmt) == Completion.RETURN) {
+                return Completion.RETURN;
             }
-        } finally {
-            this.environment = previous;
         }
+        return Completion.NORMAL;
+    }
+
+    /**
+     * Take the value of the return statement that just completed.
+     *
+     * @return The returned value.
+     */
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 }
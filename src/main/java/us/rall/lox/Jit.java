@@ -0,0 +1,63 @@
+package us.rall.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The second execution tier. A function starts out running in the
+ * {@link Interpreter}. Once its declaration has been called {@link #THRESHOLD}
+ * times, its body is compiled by the {@link JitCompiler} and loaded as a
+ * hidden class, which HotSpot can then compile to machine code like any other.
+ * A function the compiler does not support keeps running in the interpreter.
+ */
+class Jit {
+    /**
+     * The number of calls after which a function is compiled.
+     */
+    static final int THRESHOLD = 1000;
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(void.class, Object[].class);
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    /**
+     * Count a call to a function that has not been compiled, compiling it if
+     * it has become hot.
+     *
+     * @param declaration The declaration of the function.
+     * @param isMethod    Whether the function is a method.
+     * @return The compiled body, or null if the function stays interpreted.
+     */
+    JitCode countCall(Stmt.Function declaration, boolean isMethod) {
+        int invocations = declaration.getInvocations() + 1;
+        declaration.setInvocations(invocations);
+        if (invocations != THRESHOLD) {
+            return null;
+        }
+        JitCode code = compile(declaration, isMethod);
+        declaration.setCode(code);
+        return code;
+    }
+
+    private JitCode compile(Stmt.Function declaration, boolean isMethod) {
+        JitCompiler compiler = new JitCompiler(declaration, isMethod);
+        byte[] bytes;
+        MethodHandle constructor;
+        try {
+            bytes = compiler.compile();
+            if (bytes == null) {
+                return null;
+            }
+            MethodHandles.Lookup compiled = lookup.defineHiddenClassWithClassData(bytes, compiler.getSites(), true);
+            constructor = compiled.findConstructor(compiled.lookupClass(), CONSTRUCTOR);
+        } catch (IllegalStateException | LinkageError | ReflectiveOperationException e) {
+            // The class could not be written or loaded; leave the function to the interpreter.
+            return null;
+        }
+        try {
+            return (JitCode) constructor.invoke(compiler.getConstants());
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package us.rall.lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The body of a Lox function compiled to JVM bytecode by the {@link Jit}. A
+ * function with up to {@link LoxCallable#MAX_DIRECT_ARGUMENTS} parameters is
+ * compiled to the run method of its arity and takes its arguments directly;
+ * any other is compiled to the one taking a list. Each method calls the
+ * compiled one.
+ */
+interface JitCode {
+    /**
+     * Run the function's body.
+     *
+     * @param interpreter The Lox interpreter.
+     * @param closure     The environment the function closes over.
+     * @param receiver    The receiver if the function is a method, or null.
+     * @param arguments   The arguments to the call.
+     * @return The returned value, or the tail call the body returned.
+     */
+    default Object run(Interpreter interpreter, Environment closure, LoxInstance receiver, List<Object> arguments) {
+        return switch (arguments.size()) {
+            case 0 -> run0(interpreter, closure, receiver);
+            case 1 -> run1(interpreter, closure, receiver, arguments.get(0));
+            case 2 -> run2(interpreter, closure, receiver, arguments.get(0), arguments.get(1));
+            case 3 -> run3(interpreter, closure, receiver, arguments.get(0), arguments.get(1), arguments.get(2));
+            default -> run4(interpreter, closure, receiver, arguments.get(0), arguments.get(1), arguments.get(2),
+                    arguments.get(3));
+        };
+    }
+
+    default Object run0(Interpreter interpreter, Environment closure, LoxInstance receiver) {
+        return run(interpreter, closure, receiver, Arrays.asList());
+    }
+
+    default Object run1(Interpreter interpreter, Environment closure, LoxInstance receiver, Object a) {
+        return run(interpreter, closure, receiver, Arrays.asList(a));
+    }
+
+    default Object run2(Interpreter interpreter, Environment closure, LoxInstance receiver, Object a, Object b) {
+        return run(interpreter, closure, receiver, Arrays.asList(a, b));
+    }
+
+    default Object run3(Interpreter interpreter, Environment closure, LoxInstance receiver, Object a, Object b,
+            Object c) {
+        return run(interpreter, closure, receiver, Arrays.asList(a, b, c));
+    }
+
+    default Object run4(Interpreter interpreter, Environment closure, LoxInstance receiver, Object a, Object b,
+            Object c, Object d) {
+        return run(interpreter, closure, receiver, Arrays.asList(a, b, c, d));
+    }
+}
@@ -0,0 +1,627 @@
+package us.rall.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the body of a Lox function to a JVM class implementing
+ * {@link JitCode}. The function's frame, which also holds the locals of the
+ * blocks inside it, lives in JVM local variables rather than in an
+ * {@link Environment}, so a function that declares functions or classes, which
+ * could capture those locals, is not compiled. Variables captured from
+ * enclosing functions are still read through the closure. Operations with more
+ * than one outcome are delegated to {@link JitRuntime} and the
+ * {@link Interpreter}.
+ */
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String CLASS_NAME = "us/rall/lox/Compiled$";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String LIST = "java/util/List";
+    private static final String ARRAY_LIST = "java/util/ArrayList";
+    private static final String INTERPRETER = "us/rall/lox/Interpreter";
+    private static final String ENVIRONMENT = "us/rall/lox/Environment";
+    private static final String INSTANCE = "us/rall/lox/LoxInstance";
+    private static final String FUNCTION = "us/rall/lox/LoxFunction";
+    private static final String CLASS = "us/rall/lox/LoxClass";
+    private static final String BOX = "us/rall/lox/Box";
+    private static final String RUNTIME = "us/rall/lox/JitRuntime";
+    private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String METHOD_HANDLES = "java/lang/invoke/MethodHandles";
+    private static final String OBJECT_ARRAY = "[Ljava/lang/Object;";
+    private static final String RUN_PARAMETERS = "(Lus/rall/lox/Interpreter;Lus/rall/lox/Environment;"
+            + "Lus/rall/lox/LoxInstance;";
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // The JVM local variable slots of run's parameters. The arguments start at
+    // ARGUMENTS_SLOT, or are the list there if there are too many.
+    private static final int INTERPRETER_SLOT = 1;
+    private static final int CLOSURE_SLOT = 2;
+    private static final int RECEIVER_SLOT = 3;
+    private static final int ARGUMENTS_SLOT = 4;
+
+    private final Stmt.Function declaration;
+    private final boolean isMethod;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+    /**
+     * The invokers of the call sites the code calls through, which the class
+     * keeps in static final fields.
+     */
+    private final List<MethodHandle> sites = new ArrayList<>();
+    /**
+     * The JVM local slot of the function's frame slot 0.
+     */
+    private int base;
+    private ClassFile.Code code;
+
+    JitCompiler(Stmt.Function declaration, boolean isMethod) {
+        this.declaration = declaration;
+        this.isMethod = isMethod;
+    }
+
+    /**
+     * Compile the function.
+     *
+     * @return The bytes of the class, or null if the function uses a construct
+     * the compiler does not support.
+     */
+    byte[] compile() {
+        ClassFile classFile = new ClassFile(ACC_FINAL | ACC_SUPER, CLASS_NAME + declaration.getName().lexeme(),
+                OBJECT, "us/rall/lox/JitCode");
+        classFile.field(ACC_PRIVATE | ACC_FINAL, "constants", "[Ljava/lang/Object;");
+
+        ClassFile.Code constructor = classFile.method(ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", 2);
+        constructor.local(ClassFile.ALOAD, 0);
+        constructor.invoke(ClassFile.INVOKESPECIAL, OBJECT, "<init>", "()V");
+        constructor.local(ClassFile.ALOAD, 0);
+        constructor.local(ClassFile.ALOAD, 1);
+        constructor.field(ClassFile.PUTFIELD, CLASS_NAME + declaration.getName().lexeme(), "constants",
+                "[Ljava/lang/Object;");
+        constructor.op(ClassFile.RETURN, 0);
+        constructor.end();
+
+        int arity = declaration.getParams().size();
+        boolean direct = arity <= LoxCallable.MAX_DIRECT_ARGUMENTS;
+        if (direct) {
+            code = classFile.method(ACC_PUBLIC, "run" + arity,
+                    RUN_PARAMETERS + "Ljava/lang/Object;".repeat(arity) + ")Ljava/lang/Object;", ARGUMENTS_SLOT + arity);
+        } else {
+            code = classFile.method(ACC_PUBLIC, "run", RUN_PARAMETERS + "Ljava/util/List;)Ljava/lang/Object;",
+                    ARGUMENTS_SLOT + 1);
+        }
+        base = code.newLocals(declaration.getFrameSize());
+        int first = base;
+        if (isMethod) {
+            code.local(ClassFile.ALOAD, RECEIVER_SLOT);
+            code.local(ClassFile.ASTORE, base);
+            first++;
+        }
+        for (int i = 0; i < arity; i++) {
+            if (direct) {
+                code.local(ClassFile.ALOAD, ARGUMENTS_SLOT + i);
+            } else {
+                code.local(ClassFile.ALOAD, ARGUMENTS_SLOT);
+                code.intConstant(i);
+                code.invoke(ClassFile.INVOKEINTERFACE, LIST, "get", "(I)Ljava/lang/Object;");
+            }
+            code.local(ClassFile.ASTORE, first + i);
+        }
+        for (int i = first + declaration.getParams().size(); i < base + declaration.getFrameSize(); i++) {
+            code.op(ClassFile.ACONST_NULL, 1);
+            code.local(ClassFile.ASTORE, i);
+        }
+        try {
+            compile(declaration.getBody());
+        } catch (Unsupported e) {
+            return null;
+        }
+        code.op(ClassFile.ACONST_NULL, 1);
+        code.op(ClassFile.ARETURN, -1);
+        code.end();
+        if (!sites.isEmpty()) {
+            compileSites(classFile);
+        }
+        return classFile.toByteArray();
+    }
+
+    /**
+     * Declare the fields holding the call sites' invokers, and the static
+     * initializer that fills them from the class data the class is defined
+     * with.
+     */
+    private void compileSites(ClassFile classFile) {
+        ClassFile.Code initializer = classFile.method(ACC_STATIC, "<clinit>", "()V", 0);
+        initializer.invoke(ClassFile.INVOKESTATIC, METHOD_HANDLES, "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        initializer.stringConstant("_");
+        initializer.classLiteral(OBJECT_ARRAY);
+        initializer.invoke(ClassFile.INVOKESTATIC, METHOD_HANDLES, "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+        initializer.type(ClassFile.CHECKCAST, OBJECT_ARRAY);
+        for (int i = 0; i < sites.size(); i++) {
+            classFile.field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "site" + i, "L" + METHOD_HANDLE + ";");
+            initializer.op(ClassFile.DUP, 1);
+            initializer.intConstant(i);
+            initializer.op(ClassFile.AALOAD, -1);
+            initializer.type(ClassFile.CHECKCAST, METHOD_HANDLE);
+            initializer.field(ClassFile.PUTSTATIC, CLASS_NAME + declaration.getName().lexeme(), "site" + i,
+                    "L" + METHOD_HANDLE + ";");
+        }
+        initializer.op(ClassFile.POP, -1);
+        initializer.op(ClassFile.RETURN, 0);
+        initializer.end();
+    }
+
+    /**
+     * Get the constants the compiled code refers to, which the class expects
+     * as its constructor argument.
+     *
+     * @return The constants.
+     */
+    Object[] getConstants() {
+        return constants.toArray();
+    }
+
+    /**
+     * Get the invokers of the call sites the compiled code calls through,
+     * which the class expects as its class data.
+     *
+     * @return The invokers.
+     */
+    Object[] getSites() {
+        return sites.toArray();
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.getValue());
+        int depth = expr.getDepth();
+        if (depth < 0) {
+            code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+            constant(expr.getName(), "us/rall/lox/Token");
+            code.intConstant(expr.getSlot());
+            code.invoke(ClassFile.INVOKESTATIC, RUNTIME, "assignGlobal",
+                    "(Ljava/lang/Object;Lus/rall/lox/Interpreter;Lus/rall/lox/Token;I)Ljava/lang/Object;");
+        } else if (expr.isBoxed()) {
+            load(depth, expr.getSlot(), null);
+            code.type(ClassFile.CHECKCAST, BOX);
+            code.invoke(ClassFile.INVOKESTATIC, RUNTIME, "assignBox",
+                    "(Ljava/lang/Object;Lus/rall/lox/Box;)Ljava/lang/Object;");
+        } else if (depth == 0) {
+            code.op(ClassFile.DUP, 1);
+            code.local(ClassFile.ASTORE, base + expr.getSlot());
+        } else {
+            // A captured variable that is assigned is always boxed.
+            throw new Unsupported();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.getLeft());
+        compile(expr.getRight());
+        TokenType operator = expr.getOperator().type();
+        if (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL) {
+            String name = operator == TokenType.EQUAL_EQUAL ? "equal" : "notEqual";
+            code.invoke(ClassFile.INVOKESTATIC, RUNTIME, name, "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            return null;
+        }
+        String name = switch (operator) {
+            case PLUS -> "add";
+            case MINUS -> "subtract";
+            case STAR -> "multiply";
+            case SLASH -> "divide";
+            case GREATER -> "greater";
+            case GREATER_EQUAL -> "greaterEqual";
+            case LESS -> "less";
+            case LESS_EQUAL -> "lessEqual";
+            default -> throw new Unsupported();
+        };
+        constant(expr, "us/rall/lox/Expr$Binary");
+        code.invoke(ClassFile.INVOKESTATIC, RUNTIME, name,
+                "(Ljava/lang/Object;Ljava/lang/Object;Lus/rall/lox/Expr$Binary;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, false);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        constant(expr, "us/rall/lox/Expr$Get");
+        compile(expr.getObject());
+        code.invoke(ClassFile.INVOKESTATIC, INTERPRETER, "getProperty",
+                "(Lus/rall/lox/Expr$Get;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.getExpression());
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.getValue() == null) {
+            code.op(ClassFile.ACONST_NULL, 1);
+        } else {
+            constant(expr.getValue(), null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        ClassFile.Label end = new ClassFile.Label();
+        compile(expr.getLeft());
+        code.op(ClassFile.DUP, 1);
+        isTruthy();
+        code.jump(expr.getOperator().type() == TokenType.OR ? ClassFile.IFNE : ClassFile.IFEQ, end);
+        code.op(ClassFile.POP, -1);
+        compile(expr.getRight());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        constant(expr, "us/rall/lox/Expr$Set");
+        compile(expr.getObject());
+        code.invoke(ClassFile.INVOKESTATIC, INTERPRETER, "checkInstance",
+                "(Lus/rall/lox/Expr$Set;Ljava/lang/Object;)Lus/rall/lox/LoxInstance;");
+        compile(expr.getValue());
+        constant(expr, "us/rall/lox/Expr$Set");
+        code.invoke(ClassFile.INVOKESTATIC, RUNTIME, "set",
+                "(Lus/rall/lox/LoxInstance;Ljava/lang/Object;Lus/rall/lox/Expr$Set;)Ljava/lang/Object;");
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        findSuperMethod(expr);
+        load(expr.getThisDepth(), expr.getThisSlot(), null);
+        code.type(ClassFile.CHECKCAST, INSTANCE);
+        code.invoke(ClassFile.INVOKEVIRTUAL, FUNCTION, "bind", "(Lus/rall/lox/LoxInstance;)Lus/rall/lox/LoxFunction;");
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr.getDepth(), expr.getSlot(), expr.getKeyword());
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.getRight());
+        if (expr.getOperator().type() == TokenType.BANG) {
+            code.invoke(ClassFile.INVOKESTATIC, RUNTIME, "not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+        } else {
+            constant(expr, "us/rall/lox/Expr$Unary");
+            code.invoke(ClassFile.INVOKESTATIC, RUNTIME, "negate",
+                    "(Ljava/lang/Object;Lus/rall/lox/Expr$Unary;)Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        load(expr.getDepth(), expr.getSlot(), expr.getName());
+        if (expr.isBoxed()) {
+            code.type(ClassFile.CHECKCAST, BOX);
+            code.invoke(ClassFile.INVOKEVIRTUAL, BOX, "getValue", "()Ljava/lang/Object;");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // The block's locals are in the function's frame.
+        compile(stmt.getStatements());
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.getExpression());
+        code.op(ClassFile.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFile.Label elseBranch = new ClassFile.Label();
+        compile(stmt.getCondition());
+        isTruthy();
+        code.jump(ClassFile.IFEQ, elseBranch);
+        compile(stmt.getThenBranch());
+        if (stmt.getElseBranch() == null) {
+            code.mark(elseBranch);
+            return null;
+        }
+        ClassFile.Label end = new ClassFile.Label();
+        code.jump(ClassFile.GOTO, end);
+        code.mark(elseBranch);
+        compile(stmt.getElseBranch());
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.getExpression());
+        code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+        code.invoke(ClassFile.INVOKESTATIC, RUNTIME, "print", "(Ljava/lang/Object;Lus/rall/lox/Interpreter;)V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall()) {
+            compileCall((Expr.Call) stmt.getValue(), true);
+        } else if (stmt.getValue() != null) {
+            compile(stmt.getValue());
+        } else {
+            code.op(ClassFile.ACONST_NULL, 1);
+        }
+        code.op(ClassFile.ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassFile.Label start = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        code.mark(start);
+        compile(stmt.getCondition());
+        isTruthy();
+        code.jump(ClassFile.IFEQ, end);
+        compile(stmt.getBody());
+        code.jump(ClassFile.GOTO, start);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.getInitializer() == null) {
+            code.op(ClassFile.ACONST_NULL, 1);
+        } else {
+            compile(stmt.getInitializer());
+        }
+        // Only locals reach here; a global declaration is never in a function.
+        code.local(ClassFile.ASTORE, base + stmt.getSlot());
+        return null;
+    }
+
+    private void compile(List<Stmt> statements) {
+        for (Stmt stmt : statements) {
+            stmt.accept(this);
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    /**
+     * Compile a call, leaving its result on the stack.
+     *
+     * @param expr The call expression.
+     * @param tail Whether the call is in tail position.
+     */
+    private void compileCall(Expr.Call expr, boolean tail) {
+        if (expr.getCallee() instanceof Expr.Get get) {
+            compileInvokeProperty(expr, get, tail);
+        } else if (expr.getCallee() instanceof Expr.Super superExpr) {
+            code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+            constant(expr, "us/rall/lox/Expr$Call");
+            findSuperMethod(superExpr);
+            load(superExpr.getThisDepth(), superExpr.getThisSlot(), null);
+            code.type(ClassFile.CHECKCAST, INSTANCE);
+            invokeMethod(compileArguments(expr, tail), tail);
+        } else if (!tail && expr.getArguments().size() <= LoxCallable.MAX_DIRECT_ARGUMENTS) {
+            // Call through a site of the expression's own, whose invoker is a
+            // constant HotSpot can inline through.
+            int site = sites.size();
+            sites.add(new LoxCallSite(expr).dynamicInvoker());
+            code.field(ClassFile.GETSTATIC, CLASS_NAME + declaration.getName().lexeme(), "site" + site,
+                    "L" + METHOD_HANDLE + ";");
+            code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+            compile(expr.getCallee());
+            compileArguments(expr, false);
+            code.invoke(ClassFile.INVOKEVIRTUAL, METHOD_HANDLE, "invokeExact",
+                    "(Lus/rall/lox/Interpreter;Ljava/lang/Object;" + "Ljava/lang/Object;".repeat(4)
+                    + ")Ljava/lang/Object;");
+        } else {
+            code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+            constant(expr, "us/rall/lox/Expr$Call");
+            compile(expr.getCallee());
+            callValue(compileArguments(expr, tail), tail);
+        }
+    }
+
+    /**
+     * Compile a call on a property, which invokes a method without binding it
+     * as {@link Interpreter#invokeMethod} does.
+     */
+    private void compileInvokeProperty(Expr.Call expr, Expr.Get get, boolean tail) {
+        int object = code.newLocals(1);
+        int method = code.newLocals(1);
+        ClassFile.Label field = new ClassFile.Label();
+        ClassFile.Label end = new ClassFile.Label();
+        constant(get, "us/rall/lox/Expr$Get");
+        compile(get.getObject());
+        code.op(ClassFile.DUP, 1);
+        code.local(ClassFile.ASTORE, object);
+        code.invoke(ClassFile.INVOKESTATIC, INTERPRETER, "findMethod",
+                "(Lus/rall/lox/Expr$Get;Ljava/lang/Object;)Lus/rall/lox/LoxFunction;");
+        code.op(ClassFile.DUP, 1);
+        code.local(ClassFile.ASTORE, method);
+        code.jump(ClassFile.IFNULL, field);
+
+        code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+        constant(expr, "us/rall/lox/Expr$Call");
+        code.local(ClassFile.ALOAD, method);
+        code.local(ClassFile.ALOAD, object);
+        code.type(ClassFile.CHECKCAST, INSTANCE);
+        invokeMethod(compileArguments(expr, tail), tail);
+        code.jump(ClassFile.GOTO, end);
+
+        code.mark(field);
+        code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+        constant(expr, "us/rall/lox/Expr$Call");
+        constant(get, "us/rall/lox/Expr$Get");
+        code.local(ClassFile.ALOAD, object);
+        code.invoke(ClassFile.INVOKESTATIC, INTERPRETER, "getProperty",
+                "(Lus/rall/lox/Expr$Get;Ljava/lang/Object;)Ljava/lang/Object;");
+        callValue(compileArguments(expr, tail), tail);
+        code.mark(end);
+    }
+
+    /**
+     * Push the arguments of a call, as a list if the call is in tail position
+     * or has too many arguments, and otherwise one by one, padded with nulls.
+     *
+     * @return Whether the arguments were pushed one by one.
+     */
+    private boolean compileArguments(Expr.Call expr, boolean tail) {
+        List<Expr> arguments = expr.getArguments();
+        if (tail || arguments.size() > LoxCallable.MAX_DIRECT_ARGUMENTS) {
+            compileArguments(expr);
+            return false;
+        }
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+        for (int i = arguments.size(); i < LoxCallable.MAX_DIRECT_ARGUMENTS; i++) {
+            code.op(ClassFile.ACONST_NULL, 1);
+        }
+        return true;
+    }
+
+    private void compileArguments(Expr.Call expr) {
+        code.type(ClassFile.NEW, ARRAY_LIST);
+        code.op(ClassFile.DUP, 1);
+        code.intConstant(expr.getArguments().size());
+        code.invoke(ClassFile.INVOKESPECIAL, ARRAY_LIST, "<init>", "(I)V");
+        for (Expr argument : expr.getArguments()) {
+            code.op(ClassFile.DUP, 1);
+            compile(argument);
+            code.invoke(ClassFile.INVOKEINTERFACE, LIST, "add", "(Ljava/lang/Object;)Z");
+            code.op(ClassFile.POP, -1);
+        }
+    }
+
+    private void invokeMethod(boolean direct, boolean tail) {
+        if (direct) {
+            code.invoke(ClassFile.INVOKEVIRTUAL, INTERPRETER, "invokeMethod", "(Lus/rall/lox/Expr$Call;"
+                    + "Lus/rall/lox/LoxFunction;Lus/rall/lox/LoxInstance;" + "Ljava/lang/Object;".repeat(4)
+                    + ")Ljava/lang/Object;");
+            return;
+        }
+        code.intConstant(tail ? 1 : 0);
+        code.invoke(ClassFile.INVOKEVIRTUAL, INTERPRETER, "invokeMethod", "(Lus/rall/lox/Expr$Call;"
+                + "Lus/rall/lox/LoxFunction;Lus/rall/lox/LoxInstance;Ljava/util/List;Z)Ljava/lang/Object;");
+    }
+
+    private void callValue(boolean direct, boolean tail) {
+        if (direct) {
+            code.invoke(ClassFile.INVOKEVIRTUAL, INTERPRETER, "callValue",
+                    "(Lus/rall/lox/Expr$Call;Ljava/lang/Object;" + "Ljava/lang/Object;".repeat(4)
+                    + ")Ljava/lang/Object;");
+            return;
+        }
+        code.intConstant(tail ? 1 : 0);
+        code.invoke(ClassFile.INVOKEVIRTUAL, INTERPRETER, "callValue",
+                "(Lus/rall/lox/Expr$Call;Ljava/lang/Object;Ljava/util/List;Z)Ljava/lang/Object;");
+    }
+
+    private void findSuperMethod(Expr.Super expr) {
+        constant(expr, "us/rall/lox/Expr$Super");
+        load(expr.getDepth(), expr.getSlot(), null);
+        code.type(ClassFile.CHECKCAST, CLASS);
+        code.invoke(ClassFile.INVOKESTATIC, INTERPRETER, "findSuperMethod",
+                "(Lus/rall/lox/Expr$Super;Lus/rall/lox/LoxClass;)Lus/rall/lox/LoxFunction;");
+    }
+
+    /**
+     * Push the value of a variable.
+     *
+     * @param depth The scope depth the resolver found the variable at.
+     * @param slot  The slot of the variable in its frame.
+     * @param name  The name of the variable, used if it is a global.
+     */
+    private void load(int depth, int slot, Token name) {
+        if (depth < 0) {
+            code.local(ClassFile.ALOAD, INTERPRETER_SLOT);
+            constant(name, "us/rall/lox/Token");
+            code.intConstant(slot);
+            code.invoke(ClassFile.INVOKESTATIC, RUNTIME, "getGlobal",
+                    "(Lus/rall/lox/Interpreter;Lus/rall/lox/Token;I)Ljava/lang/Object;");
+        } else if (depth == 0) {
+            code.local(ClassFile.ALOAD, base + slot);
+        } else {
+            code.local(ClassFile.ALOAD, CLOSURE_SLOT);
+            code.intConstant(depth - 1);
+            code.intConstant(slot);
+            code.invoke(ClassFile.INVOKEVIRTUAL, ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+        }
+    }
+
+    private void isTruthy() {
+        code.invoke(ClassFile.INVOKESTATIC, INTERPRETER, "isTruthy", "(Ljava/lang/Object;)Z");
+    }
+
+    /**
+     * Push a constant from the compiled class's constant array.
+     *
+     * @param value     The constant.
+     * @param className The internal name of the class to cast it to, or null.
+     */
+    private void constant(Object value, String className) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+        code.local(ClassFile.ALOAD, 0);
+        code.field(ClassFile.GETFIELD, CLASS_NAME + declaration.getName().lexeme(), "constants",
+                "[Ljava/lang/Object;");
+        code.intConstant(index);
+        code.op(ClassFile.AALOAD, -1);
+        if (className != null) {
+            code.type(ClassFile.CHECKCAST, className);
+        }
+    }
+
+    private static class Unsupported extends RuntimeException {
+    }
+}
@@ -0,0 +1,108 @@
+package us.rall.lox;
+
+/**
+ * Operations that code compiled by the {@link Jit} calls instead of inlining.
+ * Each one takes the fast path the interpreter's specialized operations take
+ * and otherwise defers to the interpreter, so errors are reported the same
+ * way in both tiers.
+ */
+final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    static Object add(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l + r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object subtract(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l - r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object multiply(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l * r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object divide(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l / r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object greater(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l > r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object greaterEqual(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l >= r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object less(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l < r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object lessEqual(Object left, Object right, Expr.Binary expr) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l <= r;
+        }
+        return BinaryOperation.GENERIC.execute(expr, left, right);
+    }
+
+    static Object equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static Object notEqual(Object left, Object right) {
+        return !Interpreter.isEqual(left, right);
+    }
+
+    static Object negate(Object operand, Expr.Unary expr) {
+        Interpreter.checkNumberOperand(expr.getOperator(), operand);
+        return -(double) operand;
+    }
+
+    static Object not(Object operand) {
+        return !Interpreter.isTruthy(operand);
+    }
+
+    static Object getGlobal(Interpreter interpreter, Token name, int index) {
+        return interpreter.getGlobals().get(index, name);
+    }
+
+    static Object assignGlobal(Object value, Interpreter interpreter, Token name, int index) {
+        interpreter.getGlobals().assign(index, name, value);
+        return value;
+    }
+
+    static Object assignBox(Object value, Box box) {
+        box.setValue(value);
+        return value;
+    }
+
+    static Object set(LoxInstance instance, Object value, Expr.Set expr) {
+        expr.getCache().set(instance, expr.getName(), value);
+        return value;
+    }
+
+    static void print(Object value, Interpreter interpreter) {
+        interpreter.getOutput().printValue(value);
+    }
+}
@@ -3,8 +3,6 @@ package us.rall.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 
@@ -13,7 +11,12 @@ import java.util.List;
  * Lox REPL and some helper methods for reporting errors.
  */
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
+    private static final Output output = new Output(System.out);
+    private static final Interpreter interpreter = new Interpreter(output);
+    private static final VM vm = new VM(output);
+    private static final List<Pass> passes = List.of(new Optimizer());
+    private static boolean useVm = false;
+    private static boolean dumpAst = false;
     private static boolean hadError = false;
     private static boolean hadRuntimeError = false;
 
@@ -42,16 +45,29 @@ public class Lox {
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            switch (args[first]) {
+                case "--vm" -> useVm = true;
+                case "--dump-ast" -> dumpAst = true;
+                case "--jit" -> interpreter.enableJit();
+                default -> usage();
+            }
+        }
+        if (args.length - first > 1) {
+            usage();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("usage: jlox [--vm] [--jit] [--dump-ast] [script]");
+        System.exit(64);
+    }
+
     /**
      * Prints an error message.
      */
@@ -60,27 +76,37 @@ public class Lox {
         hadError = true;
     }
 
-    private static void run(String source) {
+    private static void run(Source source) {
         Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
         if (hadError) {
             return;
         }
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(useVm ? vm.getGlobals() : interpreter.getGlobals());
         resolver.resolve(statements);
         if (hadError) {
             return;
         }
 
-        interpreter.interpret(statements);
+        for (Pass pass : passes) {
+            statements = pass.apply(statements);
+        }
+        if (dumpAst) {
+            System.out.print(new AstPrinter().print(statements));
+        }
+
+        if (useVm) {
+            vm.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
     }
 
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        run(Source.map(Paths.get(path)));
         if (hadError) {
             System.exit(65);
         }
@@ -98,7 +124,7 @@ public class Lox {
             if (line == null) {
                 break;
             }
-            run(line);
+            run(Source.of(line));
             hadError = false;
         }
     }
@@ -111,7 +137,7 @@ public class Lox {
      */
     static void runtimeError(RuntimeError error) {
         String message = error.getMessage();
-        int line = error.getToken().line();
+        int line = error.getLine();
         System.err.printf("%s\n[line %s]%n", message, line);
         hadRuntimeError = true;
     }
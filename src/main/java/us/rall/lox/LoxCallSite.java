@@ -0,0 +1,119 @@
+package us.rall.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+/**
+ * The call site of an {@link Expr.Call} in compiled code. A site starts out
+ * linked to a fallback that checks the callee and then relinks the site to a
+ * method handle that calls that callee directly, behind a guard. A Lox
+ * function is guarded on its declaration, so every closure or bound method
+ * over it shares the link; any other callable is guarded on its identity. When
+ * the guard fails the fallback runs and relinks again, until the site has seen
+ * {@link #MAX_RELINKS} callees and stays on the fallback for good.
+ * <p>
+ * The {@link JitCompiler} makes a site for each call it compiles that is not
+ * in tail position and has at most {@link LoxCallable#MAX_DIRECT_ARGUMENTS}
+ * arguments, and keeps the site's {@link #dynamicInvoker()} in a static final
+ * field of the compiled class. HotSpot treats the invoker as a constant, so
+ * it inlines the guard and the linked call, and recompiles the code when the
+ * site is relinked. Every site has the same type and is linked to the
+ * fixed-arity call method for its number of arguments; the arguments past the
+ * call's are null.
+ */
+final class LoxCallSite extends MutableCallSite {
+    /**
+     * The number of times a site relinks before it is considered megamorphic.
+     */
+    static final int MAX_RELINKS = 8;
+    private static final MethodType TYPE = MethodType.methodType(Object.class, Interpreter.class, Object.class,
+            Object.class, Object.class, Object.class, Object.class);
+    private static final MethodHandle FALLBACK;
+    private static final MethodHandle[] CALLS = new MethodHandle[LoxCallable.MAX_DIRECT_ARGUMENTS + 1];
+    private static final MethodHandle IS_SAME;
+    private static final MethodHandle IS_FUNCTION_OF;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            FALLBACK = lookup.findVirtual(LoxCallSite.class, "fallback", TYPE);
+            for (int i = 0; i < CALLS.length; i++) {
+                MethodType type = MethodType.genericMethodType(i).insertParameterTypes(0, Interpreter.class);
+                CALLS[i] = lookup.findVirtual(LoxCallable.class, "call" + i, type);
+            }
+            IS_SAME = lookup.findStatic(LoxCallSite.class, "isSame",
+                    MethodType.methodType(boolean.class, Object.class, Object.class));
+            IS_FUNCTION_OF = lookup.findStatic(LoxCallSite.class, "isFunctionOf",
+                    MethodType.methodType(boolean.class, Stmt.Function.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Expr.Call expr;
+    private final MethodHandle fallback;
+    private int relinks = 0;
+
+    LoxCallSite(Expr.Call expr) {
+        super(TYPE);
+        this.expr = expr;
+        this.fallback = FALLBACK.bindTo(this);
+        setTarget(fallback);
+    }
+
+    private Object fallback(Interpreter interpreter, Object callee, Object a, Object b, Object c, Object d) {
+        int count = expr.getArguments().size();
+        LoxCallable function = Interpreter.checkCallable(expr, callee, count);
+        if (relinks < MAX_RELINKS) {
+            relinks++;
+            setTarget(link(function, count));
+        }
+        return switch (count) {
+            case 0 -> function.call0(interpreter);
+            case 1 -> function.call1(interpreter, a);
+            case 2 -> function.call2(interpreter, a, b);
+            case 3 -> function.call3(interpreter, a, b, c);
+            default -> function.call4(interpreter, a, b, c, d);
+        };
+    }
+
+    /**
+     * Build the guarded handle that calls a callable directly.
+     */
+    private MethodHandle link(LoxCallable function, int count) {
+        MethodHandle call = CALLS[count];
+        // Drop the arguments the call method does not take.
+        int unused = TYPE.parameterCount() - call.type().parameterCount();
+        call = MethodHandles.dropArguments(call, call.type().parameterCount(),
+                TYPE.parameterList().subList(TYPE.parameterCount() - unused, TYPE.parameterCount()));
+        MethodHandle test;
+        MethodHandle target;
+        if (function instanceof LoxFunction loxFunction) {
+            test = IS_FUNCTION_OF.bindTo(loxFunction.getDeclaration());
+            // (Interpreter, Object, ...) -> callee.callN(interpreter, ...)
+            int[] order = new int[TYPE.parameterCount()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            order[0] = 1;
+            order[1] = 0;
+            target = MethodHandles.permuteArguments(call.asType(call.type().changeParameterType(0, Object.class)),
+                    TYPE, order);
+        } else {
+            test = IS_SAME.bindTo(function);
+            target = MethodHandles.dropArguments(call.bindTo(function), 1, Object.class);
+        }
+        test = MethodHandles.dropArguments(test, 0, Interpreter.class);
+        return MethodHandles.guardWithTest(test, target, fallback);
+    }
+
+    private static boolean isSame(Object expected, Object callee) {
+        return expected == callee;
+    }
+
+    private static boolean isFunctionOf(Stmt.Function declaration, Object callee) {
+        return callee instanceof LoxFunction function && function.getDeclaration() == declaration;
+    }
+}
@@ -1,11 +1,20 @@
 package us.rall.lox;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * An interface for callable types in Lox.
+ * An interface for callable types in Lox. Calls with up to
+ * {@link #MAX_DIRECT_ARGUMENTS} arguments are made through the fixed-arity
+ * methods, so no argument list is built; callables override them to take the
+ * arguments directly.
  */
 interface LoxCallable {
+    /**
+     * The most arguments a call passes without building a list.
+     */
+    int MAX_DIRECT_ARGUMENTS = 4;
+
     /**
      * Get the arity of the function.
      *
@@ -21,4 +30,24 @@ interface LoxCallable {
      * @return The results of the function call.
      */
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Arrays.asList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Arrays.asList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, Arrays.asList(a, b, c, d));
+    }
 }
@@ -1,32 +1,56 @@
 package us.rall.lox;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
     private final String name;
-    private final LoxClass superclass;
+    /**
+     * Every method of the class, including inherited ones, so lookup never
+     * walks the superclass chain.
+     */
     private final Map<String, LoxFunction> methods;
+    private final LoxFunction initializer;
+    private final Shape rootShape = new Shape();
+    /**
+     * The number of fields a new instance makes room for: those the class's
+     * initializer assigns on {@code this}, plus the superclass's.
+     */
+    private final int fieldCapacity;
 
-    public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    public LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods, int fieldCount) {
         this.name = name;
-        this.superclass = superclass;
-        this.methods = methods;
+        this.fieldCapacity = superclass == null ? fieldCount : fieldCount + superclass.fieldCapacity;
+        if (superclass == null) {
+            this.methods = methods;
+        } else {
+            this.methods = new HashMap<>(superclass.methods);
+            this.methods.putAll(methods);
+        }
+        this.initializer = this.methods.get("init");
+    }
+
+    /**
+     * Get the shape new instances of the class start with. Instances of
+     * different classes never share shapes.
+     *
+     * @return The empty shape of the class.
+     */
+    Shape getRootShape() {
+        return rootShape;
+    }
+
+    int getFieldCapacity() {
+        return fieldCapacity;
     }
 
     LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-        return null;
+        return methods.get(name);
     }
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) {
             return 0;
         }
@@ -36,9 +60,41 @@ class LoxClass implements LoxCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.invoke(interpreter, instance, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return construct(interpreter, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return construct(interpreter, a, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return construct(interpreter, a, b, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return construct(interpreter, a, b, c, null);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return construct(interpreter, a, b, c, d);
+    }
+
+    private LoxInstance construct(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) {
+            initializer.invoke(interpreter, instance, a, b, c, d);
         }
         return instance;
     }
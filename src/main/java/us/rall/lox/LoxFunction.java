@@ -2,21 +2,62 @@ package us.rall.lox;
 
 import java.util.List;
 
+/**
+ * A Lox function or method. A method keeps its receiver in slot 0 of its own
+ * frame, so calling one needs no environment just to hold {@code this}. The
+ * closure holds only the variables the function captures.
+ */
 class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
+    /**
+     * The captured variables, or null if the function captures none.
+     */
     private final Environment closure;
     private final Boolean isInitializer;
+    private final boolean isMethod;
+    /**
+     * The instance a bound method was bound to, or null.
+     */
+    private final LoxInstance receiver;
 
     LoxFunction(Stmt.Function declaration, Environment closure, Boolean isInitializer) {
+        this(declaration, closure, isInitializer, false, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Environment closure, Boolean isInitializer, boolean isMethod,
+            LoxInstance receiver) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.isMethod = isMethod;
+        this.receiver = receiver;
+    }
+
+    /**
+     * Create a method of a class.
+     *
+     * @param declaration   The method declaration.
+     * @param closure       The environment the class was declared in.
+     * @param isInitializer Whether the method is the class's initializer.
+     * @return The unbound method.
+     */
+    static LoxFunction method(Stmt.Function declaration, Environment closure, Boolean isInitializer) {
+        return new LoxFunction(declaration, closure, isInitializer, true, null);
+    }
+
+    Stmt.Function getDeclaration() {
+        return declaration;
     }
 
+    /**
+     * Bind a method to an instance so it can be used as a value. Calls made
+     * directly on a property use {@link #invoke} instead.
+     *
+     * @param instance The instance.
+     * @return The bound method.
+     */
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, closure, isInitializer, true, instance);
     }
 
     @Override
@@ -26,20 +67,176 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < arity(); i++) {
-            environment.define(declaration.getParams().get(i).lexeme(), arguments.get(i));
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke(interpreter, receiver, null, null, null, null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke(interpreter, receiver, a, null, null, null);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke(interpreter, receiver, a, b, null, null);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return invoke(interpreter, receiver, a, b, c, null);
+    }
+
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return invoke(interpreter, receiver, a, b, c, d);
+    }
+
+    /**
+     * Call the function with an explicit receiver. Tail calls the function
+     * makes, directly or through other functions, run in this loop rather
+     * than on the Java stack.
+     *
+     * @param interpreter The Lox interpreter.
+     * @param instance    The receiver, which is ignored unless this is a method.
+     * @param arguments   The arguments to the call.
+     * @return The result of the call.
+     */
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        LoxFunction function = this;
+        for (; ; ) {
+            Object value = function.execute(interpreter, instance, arguments);
+            if (!(value instanceof TailCall call)) {
+                return value;
+            }
+            function = call.function();
+            instance = call.receiver();
+            arguments = call.arguments();
         }
-        try {
-            interpreter.executeBlock(declaration.getBody(), environment);
-        } catch (Return returnValue) {
+    }
+
+    /**
+     * Call the function with an explicit receiver and up to
+     * {@link LoxCallable#MAX_DIRECT_ARGUMENTS} arguments, which go straight
+     * into its frame. The arguments past the function's arity are ignored.
+     *
+     * @param interpreter The Lox interpreter.
+     * @param instance    The receiver, which is ignored unless this is a method.
+     * @return The result of the call.
+     */
+    Object invoke(Interpreter interpreter, LoxInstance instance, Object a, Object b, Object c, Object d) {
+        JitCode code = compiled(interpreter);
+        Object value;
+        if (code != null) {
+            value = switch (arity()) {
+                case 0 -> code.run0(interpreter, closure, instance);
+                case 1 -> code.run1(interpreter, closure, instance, a);
+                case 2 -> code.run2(interpreter, closure, instance, a, b);
+                case 3 -> code.run3(interpreter, closure, instance, a, b, c);
+                default -> code.run4(interpreter, closure, instance, a, b, c, d);
+            };
             if (isInitializer) {
-                return closure.getAt(0, "this");
+                return instance;
+            }
+        } else {
+            Environment environment = enter(interpreter, instance);
+            int first = isMethod ? 1 : 0;
+            int arity = arity();
+            if (arity > 0) {
+                environment.define(first, parameter(0, a));
+            }
+            if (arity > 1) {
+                environment.define(first + 1, parameter(1, b));
+            }
+            if (arity > 2) {
+                environment.define(first + 2, parameter(2, c));
+            }
+            if (arity > 3) {
+                environment.define(first + 3, parameter(3, d));
             }
-            return returnValue.getValue();
+            value = run(interpreter, environment, instance);
+        }
+        if (value instanceof TailCall call) {
+            return call.function().invoke(interpreter, call.receiver(), call.arguments());
+        }
+        return value;
+    }
+
+    /**
+     * Make a tail call to the function. The caller returns the call instead of
+     * making it.
+     *
+     * @param arguments The arguments to the call.
+     * @return The tail call.
+     */
+    TailCall tailCall(List<Object> arguments) {
+        return new TailCall(this, receiver, arguments);
+    }
+
+    /**
+     * Run the function's body once.
+     *
+     * @return The result of the function, or the tail call it returned.
+     */
+    private Object execute(Interpreter interpreter, LoxInstance instance, List<Object> arguments) {
+        JitCode code = compiled(interpreter);
+        if (code != null) {
+            Object value = code.run(interpreter, closure, instance, arguments);
+            return isInitializer ? instance : value;
         }
+        Environment environment = enter(interpreter, instance);
+        int first = isMethod ? 1 : 0;
+        for (int i = 0; i < arguments.size(); i++) {
+            environment.define(first + i, parameter(i, arguments.get(i)));
+        }
+        return run(interpreter, environment, instance);
+    }
+
+    /**
+     * Get the compiled body of the function, counting the call if it has not
+     * been compiled.
+     *
+     * @return The compiled body, or null if the function is interpreted.
+     */
+    private JitCode compiled(Interpreter interpreter) {
+        JitCode code = declaration.getCode();
+        if (code == null && interpreter.getJit() != null) {
+            code = interpreter.getJit().countCall(declaration, isMethod);
+        }
+        return code;
+    }
+
+    /**
+     * Take a frame for a call, holding the receiver if this is a method.
+     */
+    private Environment enter(Interpreter interpreter, LoxInstance instance) {
+        Environment environment = interpreter.getFrames().push(closure, declaration.getFrameSize());
+        if (isMethod) {
+            environment.define(0, instance);
+        }
+        return environment;
+    }
+
+    private Object parameter(int index, Object argument) {
+        return declaration.getBoxedParams()[index] ? new Box(argument) : argument;
+    }
+
+    /**
+     * Run the function's body in its frame, then give the frame back.
+     *
+     * @return The result of the function, or the tail call it returned.
+     */
+    private Object run(Interpreter interpreter, Environment environment, LoxInstance instance) {
+        Completion completion = interpreter.executeBlock(declaration.getBody(), environment);
+        interpreter.getFrames().pop();
         if (isInitializer) {
-            return closure.getAt(0, "this");
+            return instance;
+        }
+        if (completion == Completion.RETURN) {
+            return interpreter.takeReturnValue();
         }
         return null;
     }
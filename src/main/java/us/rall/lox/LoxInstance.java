@@ -1,30 +1,58 @@
 package us.rall.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
+    private static final Object[] NO_VALUES = new Object[0];
+
     private final LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] values = NO_VALUES;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.getRootShape();
+        int capacity = klass.getFieldCapacity();
+        if (capacity > 0) {
+            this.values = new Object[capacity];
+        }
     }
 
-    Object get(Token name) {
-        String lexeme = name.lexeme();
-        if (fields.containsKey(lexeme)) {
-            return fields.get(lexeme);
-        }
-        LoxFunction method = klass.findMethod(lexeme);
-        if (method != null) {
-            return method.bind(this);
-        }
-        throw new RuntimeError(name, "Undefined property '%s'.".formatted(lexeme));
+    LoxClass getKlass() {
+        return klass;
     }
 
-    void set(Token name, Object value) {
-        fields.put(name.lexeme(), value);
+    Shape getShape() {
+        return shape;
+    }
+
+    /**
+     * Get a field by its index in the instance's shape.
+     *
+     * @param index The index of the field.
+     * @return The value of the field.
+     */
+    Object getField(int index) {
+        return values[index];
+    }
+
+    /**
+     * Set a field, moving the instance to a new shape if the field is new. The
+     * value array grows by doubling, so adding fields one at a time outside
+     * the initializer copies each value a constant number of times.
+     *
+     * @param next  The shape of the instance after the write.
+     * @param index The index of the field in that shape.
+     * @param value The new value.
+     */
+    void setField(Shape next, int index, Object value) {
+        if (next != shape) {
+            shape = next;
+            if (index >= values.length) {
+                values = Arrays.copyOf(values, Math.max(next.size(), values.length * 2));
+            }
+        }
+        values[index] = value;
     }
 
     @Override
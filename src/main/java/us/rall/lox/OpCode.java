@@ -0,0 +1,99 @@
+package us.rall.lox;
+
+/**
+ * The instruction set of the Lox {@link VM}. Each instruction is one word in a
+ * {@link Chunk}, followed by its operand words. Opcodes are plain constants
+ * rather than an enum so the dispatch loop can switch on the code word
+ * directly.
+ */
+final class OpCode {
+    /** Push constant {@code k}. */
+    static final int CONSTANT = 0;
+    /** Push nil. */
+    static final int NIL = 1;
+    /** Push true. */
+    static final int TRUE = 2;
+    /** Push false. */
+    static final int FALSE = 3;
+    /** Discard the top of the stack. */
+    static final int POP = 4;
+    /** Push local slot {@code s} of the current frame. */
+    static final int GET_LOCAL = 5;
+    /** Store the top of the stack in local slot {@code s}. */
+    static final int SET_LOCAL = 6;
+    /** Push global cell {@code g}, whose name token is constant {@code k}. */
+    static final int GET_GLOBAL = 7;
+    /** Pop a value into global cell {@code g}. */
+    static final int DEFINE_GLOBAL = 8;
+    /** Store the top of the stack in defined global cell {@code g}, whose name token is constant {@code k}. */
+    static final int SET_GLOBAL = 9;
+    /** Push upvalue {@code u} of the current closure. */
+    static final int GET_UPVALUE = 10;
+    /** Store the top of the stack in upvalue {@code u}. */
+    static final int SET_UPVALUE = 11;
+    /** Replace an instance with its property named by constant {@code k}, using inline cache {@code c}. */
+    static final int GET_PROPERTY = 12;
+    /** Pop a value and an instance, set the property named by constant {@code k} using inline cache {@code c}, and push the value. */
+    static final int SET_PROPERTY = 13;
+    /** Check that the top of the stack is an instance before evaluating a property's new value. */
+    static final int CHECK_FIELDS = 14;
+    /** Replace {@code this} and a superclass with the superclass method named by constant {@code k}, bound. */
+    static final int GET_SUPER = 15;
+    /** Compare the top two values for equality. */
+    static final int EQUAL = 16;
+    /** Numeric {@code >}. */
+    static final int GREATER = 17;
+    /** Numeric {@code >=}. */
+    static final int GREATER_EQUAL = 18;
+    /** Numeric {@code <}. */
+    static final int LESS = 19;
+    /** Numeric {@code <=}. */
+    static final int LESS_EQUAL = 20;
+    /** Numeric addition or string concatenation. */
+    static final int ADD = 21;
+    /** Numeric subtraction. */
+    static final int SUBTRACT = 22;
+    /** Numeric multiplication. */
+    static final int MULTIPLY = 23;
+    /** Numeric division. */
+    static final int DIVIDE = 24;
+    /** Logical not. */
+    static final int NOT = 25;
+    /** Numeric negation. */
+    static final int NEGATE = 26;
+    /** Pop and print a value. */
+    static final int PRINT = 27;
+    /** Jump forward by {@code offset} words. */
+    static final int JUMP = 28;
+    /** Jump forward by {@code offset} words if the top of the stack is falsey, without popping it. */
+    static final int JUMP_IF_FALSE = 29;
+    /** Jump backward by {@code offset} words. */
+    static final int LOOP = 30;
+    /** Call the value below {@code n} arguments. */
+    static final int CALL = 31;
+    /**
+     * Replace an instance with the pair used by {@link #INVOKE}: the receiver
+     * and its method named by constant {@code k}, or a field value and a marker,
+     * using inline cache {@code c}.
+     */
+    static final int PREPARE_INVOKE = 32;
+    /** Replace a superclass with its method named by constant {@code k}, leaving {@code this} below it. */
+    static final int PREPARE_SUPER = 33;
+    /** Call a pair pushed by {@link #PREPARE_INVOKE} or {@link #PREPARE_SUPER} with {@code n} arguments. */
+    static final int INVOKE = 34;
+    /** Push a closure over function constant {@code k}, followed by an (is-local, index) pair per upvalue. */
+    static final int CLOSURE = 35;
+    /** Move the local on top of the stack into its upvalue and pop it. */
+    static final int CLOSE_UPVALUE = 36;
+    /** Return the top of the stack from the current function. */
+    static final int RETURN = 37;
+    /** Push a new class named by constant {@code k}. */
+    static final int CLASS = 38;
+    /** Copy the methods of a superclass into the class on top of it, and pop the class. */
+    static final int INHERIT = 39;
+    /** Pop a closure into the class below it as the method named by constant {@code k}. */
+    static final int METHOD = 40;
+
+    private OpCode() {
+    }
+}
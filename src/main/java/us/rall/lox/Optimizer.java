@@ -0,0 +1,345 @@
+package us.rall.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pass that simplifies the syntax tree. It folds operators whose operands
+ * are literals, prunes branches and loops whose conditions are literals, and
+ * drops statements that can never run or whose only effect is to compute an
+ * unused value. An expression is only folded when evaluating it cannot fail,
+ * so runtime errors still happen where they would have.
+ */
+class Optimizer implements Pass, Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    @Override
+    public List<Stmt> apply(List<Stmt> statements) {
+        return optimize(statements);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.getValue());
+        if (value == expr.getValue()) {
+            return expr;
+        }
+        Expr.Assign assign = new Expr.Assign(expr.getName(), value);
+        assign.setDepth(expr.getDepth());
+        assign.setSlot(expr.getSlot());
+        assign.setBoxed(expr.isBoxed());
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.getLeft());
+        Expr right = optimize(expr.getRight());
+        if (left instanceof Expr.Literal l && right instanceof Expr.Literal r
+                && canFold(expr.getOperator().type(), l.getValue(), r.getValue())) {
+            return new Expr.Literal(BinaryOperation.GENERIC.execute(expr, l.getValue(), r.getValue()));
+        }
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Binary(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.getCallee());
+        List<Expr> arguments = new ArrayList<>();
+        boolean changed = callee != expr.getCallee();
+        for (Expr argument : expr.getArguments()) {
+            Expr optimized = optimize(argument);
+            changed |= optimized != argument;
+            arguments.add(optimized);
+        }
+        if (!changed) {
+            return expr;
+        }
+        return new Expr.Call(callee, expr.getParen(), arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.getObject());
+        if (object == expr.getObject()) {
+            return expr;
+        }
+        return new Expr.Get(object, expr.getName());
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Grouping only matters to the parser.
+        return optimize(expr.getExpression());
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.getLeft());
+        Expr right = optimize(expr.getRight());
+        if (left instanceof Expr.Literal literal) {
+            boolean truthy = Interpreter.isTruthy(literal.getValue());
+            boolean isOr = expr.getOperator().type() == TokenType.OR;
+            return truthy == isOr ? left : right;
+        }
+        if (left == expr.getLeft() && right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Logical(left, expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.getObject());
+        Expr value = optimize(expr.getValue());
+        if (object == expr.getObject() && value == expr.getValue()) {
+            return expr;
+        }
+        return new Expr.Set(object, expr.getName(), value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.getRight());
+        if (right instanceof Expr.Literal literal) {
+            Object value = literal.getValue();
+            switch (expr.getOperator().type()) {
+                case BANG:
+                    return new Expr.Literal(!Interpreter.isTruthy(value));
+                case MINUS:
+                    if (value instanceof Double number) {
+                        return new Expr.Literal(-number);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (right == expr.getRight()) {
+            return expr;
+        }
+        return new Expr.Unary(expr.getOperator(), right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.getStatements());
+        if (statements.isEmpty()) {
+            return null;
+        }
+        if (statements.equals(stmt.getStatements())) {
+            return stmt;
+        }
+        Stmt.Block block = new Stmt.Block(statements);
+        block.setFrameSize(stmt.getFrameSize());
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>();
+        for (Stmt.Function method : stmt.getMethods()) {
+            methods.add((Stmt.Function) optimize(method));
+        }
+        if (methods.equals(stmt.getMethods())) {
+            return stmt;
+        }
+        Stmt.Class klass = new Stmt.Class(stmt.getName(), stmt.getSuperclass(), methods);
+        klass.setSlot(stmt.getSlot());
+        klass.setBoxed(stmt.isBoxed());
+        klass.setSuperSlot(stmt.getSuperSlot());
+        klass.setFrameSize(stmt.getFrameSize());
+        klass.setFieldCount(stmt.getFieldCount());
+        return klass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.getExpression());
+        if (isPure(expression)) {
+            return null;
+        }
+        if (expression == stmt.getExpression()) {
+            return stmt;
+        }
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimize(stmt.getBody());
+        if (body.equals(stmt.getBody())) {
+            return stmt;
+        }
+        Stmt.Function function = new Stmt.Function(stmt.getName(), stmt.getParams(), body);
+        function.setSlot(stmt.getSlot());
+        function.setBoxed(stmt.isBoxed());
+        function.setFrameSize(stmt.getFrameSize());
+        function.setCaptures(stmt.getCaptures());
+        function.setBoxedParams(stmt.getBoxedParams());
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.getCondition());
+        Stmt thenBranch = optimize(stmt.getThenBranch());
+        Stmt elseBranch = stmt.getElseBranch() == null ? null : optimize(stmt.getElseBranch());
+        if (condition instanceof Expr.Literal literal) {
+            return Interpreter.isTruthy(literal.getValue()) ? thenBranch : elseBranch;
+        }
+        if (thenBranch == null && elseBranch == null) {
+            return optimize(new Stmt.Expression(condition));
+        }
+        if (condition == stmt.getCondition() && thenBranch == stmt.getThenBranch()
+                && elseBranch == stmt.getElseBranch()) {
+            return stmt;
+        }
+        return new Stmt.If(condition, orEmpty(thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.getExpression());
+        if (expression == stmt.getExpression()) {
+            return stmt;
+        }
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.getValue() == null) {
+            return stmt;
+        }
+        Expr value = optimize(stmt.getValue());
+        if (value == stmt.getValue()) {
+            return stmt;
+        }
+        Stmt.Return returnStmt = new Stmt.Return(stmt.getKeyword(), value);
+        returnStmt.setTailCall(stmt.isTailCall());
+        return returnStmt;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.getCondition());
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.getValue())) {
+            return null;
+        }
+        Stmt body = optimize(stmt.getBody());
+        if (condition == stmt.getCondition() && body == stmt.getBody()) {
+            return stmt;
+        }
+        return new Stmt.While(condition, orEmpty(body));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.getInitializer() == null) {
+            return stmt;
+        }
+        Expr initializer = optimize(stmt.getInitializer());
+        if (initializer == stmt.getInitializer()) {
+            return stmt;
+        }
+        Stmt.Var var = new Stmt.Var(stmt.getName(), initializer);
+        var.setSlot(stmt.getSlot());
+        var.setBoxed(stmt.isBoxed());
+        return var;
+    }
+
+    /**
+     * Optimize a list of statements, dropping the ones that have no effect and
+     * the ones after a return.
+     */
+    private List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>();
+        for (Stmt stmt : statements) {
+            Stmt result = optimize(stmt);
+            if (result != null) {
+                optimized.add(result);
+            }
+            if (stmt instanceof Stmt.Return) {
+                break;
+            }
+        }
+        return optimized;
+    }
+
+    /**
+     * Optimize a statement.
+     *
+     * @return The optimized statement, or null if it has no effect.
+     */
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private static Stmt orEmpty(Stmt stmt) {
+        if (stmt == null) {
+            return new Stmt.Block(List.of());
+        }
+        return stmt;
+    }
+
+    /**
+     * Check whether a binary operator can be applied to two values without a
+     * runtime error.
+     */
+    private static boolean canFold(TokenType operator, Object left, Object right) {
+        return switch (operator) {
+            case EQUAL_EQUAL, BANG_EQUAL -> true;
+            case PLUS -> left instanceof Double && right instanceof Double
+                    || Rope.isString(left) && Rope.isString(right);
+            case MINUS, STAR, SLASH, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL ->
+                    left instanceof Double && right instanceof Double;
+            default -> false;
+        };
+    }
+
+    /**
+     * Check whether evaluating an expression can neither fail nor have side
+     * effects. Reading a global can fail, since it may not be defined yet.
+     */
+    private static boolean isPure(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) {
+            return true;
+        }
+        if (expr instanceof Expr.Variable variable) {
+            return variable.getDepth() >= 0;
+        }
+        if (expr instanceof Expr.Logical logical) {
+            return isPure(logical.getLeft()) && isPure(logical.getRight());
+        }
+        if (expr instanceof Expr.Unary unary && unary.getOperator().type() == TokenType.BANG) {
+            return isPure(unary.getRight());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,166 @@
+package us.rall.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The destination of a Lox program's print statements. Printed lines are
+ * encoded into a buffer that is written out only when it fills or when
+ * {@link #flush} is called, so printing a line costs no system call. The
+ * interpreters flush it when a program finishes or fails.
+ */
+class Output {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final OutputStream out;
+    private final Charset charset;
+    /**
+     * Whether the charset encodes ASCII characters as themselves, so they can
+     * be copied into the buffer without an encoder.
+     */
+    private final boolean asciiCompatible;
+    private final byte[] lineSeparator;
+    private final byte[] buffer;
+    private int count = 0;
+
+    /**
+     * Create an output that encodes text in the default charset.
+     *
+     * @param out The stream to write to.
+     */
+    Output(OutputStream out) {
+        this(out, Charset.defaultCharset(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an output.
+     *
+     * @param out      The stream to write to.
+     * @param charset  The charset to encode text in.
+     * @param capacity The number of bytes to buffer before writing.
+     */
+    Output(OutputStream out, Charset charset, int capacity) {
+        this.out = out;
+        this.charset = charset;
+        asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+        lineSeparator = System.lineSeparator().getBytes(charset);
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Print a Lox value on a line of its own. Integers are written straight
+     * into the buffer as digits rather than formatted into a string first.
+     *
+     * @param value The value.
+     */
+    void printValue(Object value) {
+        if (asciiCompatible && value instanceof Double number && Interpreter.isPlainInteger(number)) {
+            writeInteger((long) (double) number);
+            write(lineSeparator);
+        } else {
+            println(Interpreter.stringify(value));
+        }
+    }
+
+    /**
+     * Write the digits of an integer, which has at most seven, and its sign.
+     */
+    private void writeInteger(long value) {
+        if (buffer.length - count < 8) {
+            writeBuffer();
+        }
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        count += digits;
+        for (int i = count - 1; i >= count - digits; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    /**
+     * Print a line.
+     *
+     * @param text The line, without its line separator.
+     */
+    void println(String text) {
+        if (!asciiCompatible || !writeAscii(text)) {
+            write(text.getBytes(charset));
+        }
+        write(lineSeparator);
+    }
+
+    /**
+     * Copy text straight into the buffer if it is all ASCII.
+     *
+     * @return Whether the text was written.
+     */
+    private boolean writeAscii(String text) {
+        int length = text.length();
+        if (length > buffer.length - count) {
+            writeBuffer();
+            if (length > buffer.length) {
+                return false;
+            }
+        }
+        int start = count;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                count = start;
+                return false;
+            }
+            buffer[count++] = (byte) c;
+        }
+        return true;
+    }
+
+    private void write(byte[] bytes) {
+        if (bytes.length > buffer.length - count) {
+            writeBuffer();
+            if (bytes.length > buffer.length) {
+                writeOut(bytes, bytes.length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Write out everything printed so far.
+     */
+    void flush() {
+        writeBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeBuffer() {
+        if (count > 0) {
+            writeOut(buffer, count);
+            count = 0;
+        }
+    }
+
+    private void writeOut(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -8,10 +8,10 @@ import java.util.List;
  * A parser for Lox source.
  */
 class Parser {
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
     private int current = 0;
 
-    public Parser(List<Token> tokens) {
+    public Parser(TokenBuffer tokens) {
         this.tokens = tokens;
     }
 
@@ -29,25 +29,29 @@ class Parser {
     }
 
     // Parser operations.
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) {
             current++;
         }
-        return previous();
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) {
             return false;
         }
-        return peek().type() == type;
+        return tokens.type(current) == type;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) {
-            return advance();
+    private void consume(TokenType type, String message) {
+        if (!check(type)) {
+            throw error(peek(), message);
         }
-        throw error(peek(), message);
+        advance();
+    }
+
+    private Token consumeIdentifier(String message) {
+        consume(TokenType.IDENTIFIER, message);
+        return previous();
     }
 
     private ParseError error(Token token, String message) {
@@ -56,7 +60,15 @@ class Parser {
     }
 
     private boolean isAtEnd() {
-        return peek().type() == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
+    }
+
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
+        }
+        return false;
     }
 
     private boolean match(TokenType... types) {
@@ -70,20 +82,20 @@ class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private void synchronize() {
         advance();
         while (!isAtEnd()) {
-            if (previous().type() == TokenType.SEMICOLON) {
+            if (tokens.type(current - 1) == TokenType.SEMICOLON) {
                 return;
             }
-            switch (peek().type()) {
+            switch (tokens.type(current)) {
                 case CLASS, FOR, FUN, IF, PRINT, RETURN, VAR, WHILE -> {
                     return;
                 }
@@ -112,7 +124,7 @@ class Parser {
     }
 
     private Stmt classDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
+        Token name = consumeIdentifier("Expect class name.");
         Expr.Variable superclass = null;
         if (match(TokenType.LESS)) {
             consume(TokenType.IDENTIFIER, "Expect superclass name.");
@@ -129,7 +141,7 @@ class Parser {
 
     @SuppressWarnings("ThrowableNotThrown")
     private Stmt.Function function(String kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expect %s name.".formatted(kind));
+        Token name = consumeIdentifier("Expect %s name.".formatted(kind));
         consume(TokenType.LEFT_PAREN, "Expect '(' after %s name.".formatted(kind));
         List<Token> params = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
@@ -137,7 +149,7 @@ class Parser {
                 if (params.size() >= 255) {
                     error(peek(), "Can't have more than 255 parameters.");
                 }
-                params.add(consume(TokenType.IDENTIFIER, "Expect parameter name."));
+                params.add(consumeIdentifier("Expect parameter name."));
             } while (match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameters.");
@@ -147,7 +159,7 @@ class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        Token name = consumeIdentifier("Expect variable name.");
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
             initializer = expression();
@@ -361,7 +373,7 @@ class Parser {
             if (match(TokenType.LEFT_PAREN)) {
                 expr = finishCall(expr);
             } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expect property name after '.'.");
+                Token name = consumeIdentifier("Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
             } else {
                 break;
@@ -381,7 +393,8 @@ class Parser {
                 arguments.add(expression());
             } while (match(TokenType.COMMA));
         }
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
         return new Expr.Call(callee, paren, arguments);
     }
 
@@ -396,12 +409,12 @@ class Parser {
             return new Expr.Literal(null);
         }
         if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal());
+            return new Expr.Literal(tokens.literal(current - 1));
         }
         if (match(TokenType.SUPER)) {
             Token keyword = previous();
             consume(TokenType.DOT, "Expect '.' after 'super'.");
-            Token method = consume(TokenType.IDENTIFIER, "Expect superclass method name.");
+            Token method = consumeIdentifier("Expect superclass method name.");
             return new Expr.Super(keyword, method);
         }
         if (match(TokenType.THIS)) {
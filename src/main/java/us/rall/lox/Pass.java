@@ -0,0 +1,19 @@
+package us.rall.lox;
+
+import java.util.List;
+
+/**
+ * A transformation of a resolved program that runs before the program is
+ * executed. A pass must keep the program's behavior, including its runtime
+ * errors, and must carry over the slots and frame sizes the {@link Resolver}
+ * recorded on any node it rebuilds.
+ */
+interface Pass {
+    /**
+     * Transform a program.
+     *
+     * @param statements The statements of the program.
+     * @return The transformed statements.
+     */
+    List<Stmt> apply(List<Stmt> statements);
+}
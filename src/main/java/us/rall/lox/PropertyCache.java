@@ -0,0 +1,136 @@
+package us.rall.lox;
+
+/**
+ * Polymorphic inline caches for property access. Each {@link Expr.Get} and
+ * {@link Expr.Set} owns a cache that remembers, for the last few receiver
+ * {@link Shape}s it saw, where the property lives. Because a shape fixes both
+ * the instance's fields and its class, a hit needs no field or method lookup.
+ * Once a site has seen more than {@link #ENTRIES} shapes it stops caching new
+ * ones.
+ */
+final class PropertyCache {
+    /**
+     * The number of shapes a site caches before it is considered megamorphic.
+     */
+    static final int ENTRIES = 4;
+
+    private PropertyCache() {
+    }
+
+    /**
+     * The cache of a property read. An entry holds either a field index or the
+     * method the property resolves to.
+     */
+    static final class Get {
+        private final Shape[] shapes = new Shape[ENTRIES];
+        private final int[] indices = new int[ENTRIES];
+        private final LoxFunction[] methods = new LoxFunction[ENTRIES];
+        private int count = 0;
+
+        /**
+         * Read a property of an instance.
+         *
+         * @param instance The instance.
+         * @param name     The name of the property.
+         * @return The field value, or the method bound to the instance.
+         */
+        Object get(LoxInstance instance, Token name) {
+            Shape shape = instance.getShape();
+            for (int i = 0; i < count; i++) {
+                if (shapes[i] == shape) {
+                    LoxFunction method = methods[i];
+                    return method == null ? instance.getField(indices[i]) : method.bind(instance);
+                }
+            }
+            String lexeme = name.lexeme();
+            int index = shape.indexOf(lexeme);
+            if (index >= 0) {
+                add(shape, index, null);
+                return instance.getField(index);
+            }
+            return findMethod(instance, name).bind(instance);
+        }
+
+        /**
+         * Find the unbound method a property of an instance resolves to, so
+         * a call can invoke it without binding it first.
+         *
+         * @param instance The instance.
+         * @param name     The name of the property.
+         * @return The method, or null if the property is a field.
+         */
+        LoxFunction method(LoxInstance instance, Token name) {
+            Shape shape = instance.getShape();
+            for (int i = 0; i < count; i++) {
+                if (shapes[i] == shape) {
+                    return methods[i];
+                }
+            }
+            if (shape.indexOf(name.lexeme()) >= 0) {
+                return null;
+            }
+            return findMethod(instance, name);
+        }
+
+        private LoxFunction findMethod(LoxInstance instance, Token name) {
+            String lexeme = name.lexeme();
+            LoxFunction method = instance.getKlass().findMethod(lexeme);
+            if (method == null) {
+                throw new RuntimeError(name, "Undefined property '%s'.".formatted(lexeme));
+            }
+            add(instance.getShape(), -1, method);
+            return method;
+        }
+
+        private void add(Shape shape, int index, LoxFunction method) {
+            if (count < ENTRIES) {
+                shapes[count] = shape;
+                indices[count] = index;
+                methods[count] = method;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * The cache of a property write. An entry holds the field index and the
+     * shape the instance has afterwards, which differs from the cached shape
+     * when the write adds the field.
+     */
+    static final class Set {
+        private final Shape[] shapes = new Shape[ENTRIES];
+        private final int[] indices = new int[ENTRIES];
+        private final Shape[] nextShapes = new Shape[ENTRIES];
+        private int count = 0;
+
+        /**
+         * Write a field of an instance, adding it if needed.
+         *
+         * @param instance The instance.
+         * @param name     The name of the field.
+         * @param value    The new value.
+         */
+        void set(LoxInstance instance, Token name, Object value) {
+            Shape shape = instance.getShape();
+            for (int i = 0; i < count; i++) {
+                if (shapes[i] == shape) {
+                    instance.setField(nextShapes[i], indices[i], value);
+                    return;
+                }
+            }
+            int index = shape.indexOf(name.lexeme());
+            Shape next = shape;
+            if (index < 0) {
+                next = shape.withField(name.lexeme());
+                index = next.size() - 1;
+            }
+            if (count < ENTRIES) {
+                shapes[count] = shape;
+                indices[count] = index;
+                nextShapes[count] = next;
+                count++;
+            }
+            instance.setField(next, index, value);
+        }
+    }
+}
@@ -1,24 +1,51 @@
 package us.rall.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
+/**
+ * Resolves each use of a local variable to a frame and slot, and each use of a
+ * global to its cell in the {@link Globals}. The locals of a function,
+ * including those of the blocks inside it, share one frame, with sibling
+ * blocks reusing the same slots; at the top level, each outermost block gets a
+ * frame. The only frame outside a function's own is its closure, which holds
+ * the variables the function captures from the scopes around it. A captured
+ * variable that is assigned after its declaration is kept in a {@link Box} so
+ * the function and its closures share it; the resolver only knows this once
+ * the variable's scope ends, so it marks the declaration and every use then.
+ */
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Map<String, Slot>> scopes = new Stack<>();
+    private final Globals globals;
+    private FunctionScope functionScope = new FunctionScope(null, 0);
     private ClassType currentClass = ClassType.NONE;
     private FunctionType currentFunction = FunctionType.NONE;
+    /**
+     * The fields the initializer being resolved assigns on {@code this}.
+     */
+    private Set<String> initializerFields = null;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(Globals globals) {
+        this.globals = globals;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.getValue());
-        resolveLocal(expr, expr.getName());
+        Location location = locate(expr.getName().lexeme());
+        if (location != null) {
+            location.slot.assigned = true;
+            location.slot.uses.add(expr);
+            expr.setDepth(location.depth);
+            expr.setSlot(location.index);
+        } else {
+            expr.setSlot(globals.index(expr.getName().lexeme()));
+        }
         return null;
     }
 
@@ -66,6 +93,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitSetExpr(Expr.Set expr) {
         resolve(expr.getValue());
         resolve(expr.getObject());
+        if (currentFunction == FunctionType.INITIALIZER && expr.getObject() instanceof Expr.This) {
+            initializerFields.add(expr.getName().lexeme());
+        }
         return null;
     }
 
@@ -77,7 +107,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         } else if (currentClass != ClassType.SUBCLASS) {
             Lox.error(keyword, "Can't use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, keyword);
+        Location location = locate(keyword.lexeme());
+        if (location != null) {
+            expr.setDepth(location.depth);
+            expr.setSlot(location.index);
+        }
+        Location receiver = locate("this");
+        if (receiver != null) {
+            expr.setThisDepth(receiver.depth);
+            expr.setThisSlot(receiver.index);
+        }
         return null;
     }
 
@@ -87,7 +126,11 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (currentClass == ClassType.NONE) {
             Lox.error(keyword, "Can't use 'this' outside of a class.");
         }
-        resolveLocal(expr, keyword);
+        Location location = locate(keyword.lexeme());
+        if (location != null) {
+            expr.setDepth(location.depth);
+            expr.setSlot(location.index);
+        }
         return null;
     }
 
@@ -100,17 +143,28 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         Token name = expr.getName();
-        if (!scopes.isEmpty() && (scopes.peek().get(name.lexeme()) == Boolean.FALSE)) {
+        if (!scopes.isEmpty() && isDeclaredButUndefined(scopes.peek().get(name.lexeme()))) {
             Lox.error(name, "Can't read local variable in its own initializer.");
         }
-        resolveLocal(expr, name);
+        Location location = locate(name.lexeme());
+        if (location != null) {
+            location.slot.uses.add(expr);
+            expr.setDepth(location.depth);
+            expr.setSlot(location.index);
+        } else {
+            expr.setSlot(globals.index(name.lexeme()));
+        }
         return null;
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        boolean newFrame = scopes.isEmpty();
         beginScope();
         resolve(stmt.getStatements());
+        if (newFrame) {
+            stmt.setFrameSize(functionScope.frameSize);
+        }
         endScope();
         return null;
     }
@@ -120,8 +174,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
         Token name = stmt.getName();
-        declare(name);
+        int slot = declare(name, stmt);
+        stmt.setSlot(slot);
         define(name);
+        if (slot >= 0) {
+            // The class is stored before its methods are created and again after.
+            scopes.peek().get(name.lexeme()).assigned = true;
+        }
         Expr.Variable superclass = stmt.getSuperclass();
         if (superclass != null) {
             if (name.lexeme().equals(superclass.getName().lexeme())) {
@@ -129,19 +188,29 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
             currentClass = ClassType.SUBCLASS;
             resolve(superclass);
+            boolean newFrame = scopes.isEmpty();
             beginScope();
-            scopes.peek().put("super", true);
+            Slot superSlot = allocate(null, true);
+            scopes.peek().put("super", superSlot);
+            stmt.setSuperSlot(superSlot.index);
+            if (newFrame) {
+                stmt.setFrameSize(functionScope.frameSize);
+            }
         }
-        beginScope();
-        scopes.peek().put("this", true);
+        Set<String> enclosingFields = initializerFields;
         for (Stmt.Function method : stmt.getMethods()) {
             FunctionType type = FunctionType.METHOD;
             if(method.getName().lexeme().equals("init")){
                 type = FunctionType.INITIALIZER;
+                initializerFields = new HashSet<>();
             }
             resolveFunction(method, type);
+            if (type == FunctionType.INITIALIZER) {
+                // Lets instances be allocated with room for the fields init sets.
+                stmt.setFieldCount(initializerFields.size());
+            }
         }
-        endScope();
+        initializerFields = enclosingFields;
         if (superclass != null) {
             endScope();
         }
@@ -157,7 +226,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.getName());
+        stmt.setSlot(declare(stmt.getName(), stmt));
         define(stmt.getName());
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -189,6 +258,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Lox.error(stmt.getKeyword(), "Can't return value from an initializer.");
             }
             resolve(stmt.getValue());
+            // Nothing runs after a returned call, so the caller's frame can go first.
+            stmt.setTailCall(stmt.getValue() instanceof Expr.Call);
         }
         return null;
     }
@@ -203,7 +274,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         Token name = stmt.getName();
-        declare(name);
+        stmt.setSlot(declare(name, stmt));
         if (stmt.getInitializer() != null) {
             resolve(stmt.getInitializer());
         }
@@ -211,26 +282,56 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void declare(Token name) {
+    /**
+     * Declare a variable in the innermost scope.
+     *
+     * @param name        The name of the variable.
+     * @param declaration The statement declaring the variable, or the function
+     *                    it is a parameter of.
+     * @return The slot assigned to the variable, or -1 for a global.
+     */
+    private int declare(Token name, Stmt declaration) {
         if (scopes.isEmpty()) {
-            return;
+            return -1;
         }
-        Map<String, Boolean> scope = scopes.peek();
+        Map<String, Slot> scope = scopes.peek();
         String lexeme = name.lexeme();
         if (scope.containsKey(lexeme)) {
             Lox.error(name, "Already a variable with this name in this scope.");
+            return scope.get(lexeme).index;
         }
-        scope.put(lexeme, false);
+        Slot slot = allocate(declaration, false);
+        scope.put(lexeme, slot);
+        return slot.index;
+    }
+
+    /**
+     * Allocate the next slot of the current frame.
+     */
+    private Slot allocate(Stmt declaration, boolean defined) {
+        FunctionScope function = functionScope;
+        Slot slot = new Slot(function.nextSlot++, defined, declaration);
+        function.frameSize = Math.max(function.frameSize, function.nextSlot);
+        return slot;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) {
             return;
         }
-        scopes.peek().put(name.lexeme(), true);
+        scopes.peek().get(name.lexeme()).defined = true;
+    }
+
+    private static boolean isDeclaredButUndefined(Slot slot) {
+        return slot != null && !slot.defined;
     }
 
     private void beginScope() {
+        if (scopes.isEmpty()) {
+            // An outermost scope starts a new frame.
+            functionScope.nextSlot = 0;
+            functionScope.frameSize = 0;
+        }
         scopes.push(new HashMap<>());
     }
 
@@ -251,27 +352,169 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        FunctionScope enclosingScope = functionScope;
+        functionScope = new FunctionScope(enclosingScope, scopes.size());
         beginScope();
-        for (Token param : function.getParams()) {
-            declare(param);
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // A method's receiver lives in slot 0 of its own frame.
+            scopes.peek().put("this", allocate(null, true));
+        }
+        List<Token> params = function.getParams();
+        function.setBoxedParams(new boolean[params.size()]);
+        for (int i = 0; i < params.size(); i++) {
+            Token param = params.get(i);
+            declare(param, function);
             define(param);
+            scopes.peek().get(param.lexeme()).param = i;
         }
         resolve(function.getBody());
+        function.setFrameSize(functionScope.frameSize);
         endScope();
+        function.setCaptures(functionScope.captures);
+        functionScope = enclosingScope;
         currentFunction = enclosingFunction;
     }
 
-    private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme())) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+    /**
+     * Find a local variable from the innermost scope.
+     *
+     * @param name The name of the variable.
+     * @return The location of the variable, or null for a global.
+     */
+    private Location locate(String name) {
+        return locate(functionScope, scopes.size() - 1, name);
+    }
+
+    /**
+     * Find a local variable from a scope of a function. A variable declared
+     * in the function is in its frame; one declared outside the function is
+     * captured by it, and by each function between it and the declaration.
+     *
+     * @param function The function.
+     * @param top      The index of the scope to search from.
+     * @param name     The name of the variable.
+     * @return The location of the variable, or null for a global.
+     */
+    private Location locate(FunctionScope function, int top, String name) {
+        for (int i = top; i >= function.base; i--) {
+            Slot slot = scopes.get(i).get(name);
+            if (slot != null) {
+                return new Location(slot, 0, slot.index);
             }
         }
+        if (function.enclosing == null) {
+            return null;
+        }
+        Location outer = locate(function.enclosing, function.base - 1, name);
+        if (outer == null) {
+            return null;
+        }
+        outer.slot.captured = true;
+        // The closure is the frame just outside the function's own.
+        return new Location(outer.slot, 1, function.capture(outer));
     }
 
     private void endScope() {
-        scopes.pop();
+        Map<String, Slot> scope = scopes.pop();
+        // The scope's slots are the last allocated, so later scopes can reuse them.
+        functionScope.nextSlot -= scope.size();
+        for (Slot slot : scope.values()) {
+            if (slot.captured && slot.assigned) {
+                box(slot);
+            }
+        }
+    }
+
+    /**
+     * Keep a variable in a box, marking its declaration and every use.
+     */
+    private static void box(Slot slot) {
+        for (Expr use : slot.uses) {
+            if (use instanceof Expr.Variable variable) {
+                variable.setBoxed(true);
+            } else {
+                ((Expr.Assign) use).setBoxed(true);
+            }
+        }
+        if (slot.declaration instanceof Stmt.Var var) {
+            var.setBoxed(true);
+        } else if (slot.declaration instanceof Stmt.Class klass) {
+            klass.setBoxed(true);
+        } else if (slot.declaration instanceof Stmt.Function function) {
+            if (slot.param >= 0) {
+                function.getBoxedParams()[slot.param] = true;
+            } else {
+                function.setBoxed(true);
+            }
+        }
+    }
+
+    /**
+     * The frame slot assigned to a local variable.
+     */
+    private static class Slot {
+        private final int index;
+        private final Stmt declaration;
+        private final List<Expr> uses = new ArrayList<>();
+        private boolean defined;
+        private boolean captured;
+        private boolean assigned;
+        private int param = -1;
+
+        Slot(int index, boolean defined, Stmt declaration) {
+            this.index = index;
+            this.defined = defined;
+            this.declaration = declaration;
+        }
+    }
+
+    /**
+     * Where a use of a local variable finds it.
+     *
+     * @param slot  The variable.
+     * @param depth The number of frames between the use and the variable.
+     * @param index The slot of the variable in that frame.
+     */
+    private record Location(Slot slot, int depth, int index) {
+    }
+
+    /**
+     * The scopes of a function being resolved, the slots of its frame, and the
+     * variables it captures. The top-level code is a function with no
+     * enclosing function.
+     */
+    private static class FunctionScope {
+        private final FunctionScope enclosing;
+        /**
+         * The index of the function's outermost scope.
+         */
+        private final int base;
+        private final List<Capture> captures = new ArrayList<>();
+        private final Map<Slot, Integer> captureIndices = new HashMap<>();
+        private int nextSlot = 0;
+        private int frameSize = 0;
+
+        FunctionScope(FunctionScope enclosing, int base) {
+            this.enclosing = enclosing;
+            this.base = base;
+        }
+
+        /**
+         * Capture a variable, once.
+         *
+         * @param location The location of the variable from the scope the
+         *                 function is declared in.
+         * @return The slot of the variable in the function's closure.
+         */
+        int capture(Location location) {
+            Integer index = captureIndices.get(location.slot);
+            if (index == null) {
+                index = captures.size();
+                captures.add(new Capture(location.depth, location.index));
+                captureIndices.put(location.slot, index);
+            }
+            return index;
+        }
     }
 
     private enum ClassType {
@@ -0,0 +1,108 @@
+package us.rall.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A Lox string made by concatenation whose characters have not been copied
+ * yet. A Lox string value is either a {@link String} or a rope. Joining two
+ * long strings only links them, so building a string with repeated {@code +}
+ * takes linear rather than quadratic time. The characters are copied once,
+ * when the rope is first printed or compared, and the flat string is kept.
+ */
+final class Rope {
+    /**
+     * The length below which concatenation copies the characters at once,
+     * which is cheaper than linking short strings.
+     */
+    private static final int MIN_LENGTH = 256;
+
+    private final int length;
+    /**
+     * The two halves, or null once the rope has been flattened.
+     */
+    private Object left;
+    private Object right;
+    private String flat;
+
+    private Rope(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    /**
+     * Check whether a value is a Lox string.
+     *
+     * @param value The value.
+     * @return Whether the value is a string or a rope.
+     */
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    /**
+     * Concatenate two Lox strings.
+     *
+     * @param left  The first string.
+     * @param right The second string.
+     * @return The concatenation, as a string if it is short and a rope if not.
+     */
+    static Object concat(Object left, Object right) {
+        int length = length(left) + length(right);
+        if (length < MIN_LENGTH) {
+            return left.toString().concat(right.toString());
+        }
+        return new Rope(left, right, length);
+    }
+
+    private static int length(Object string) {
+        if (string instanceof Rope rope) {
+            return rope.length;
+        }
+        return ((String) string).length();
+    }
+
+    /**
+     * Check whether a rope equals another value.
+     *
+     * @param left  A value that is not null.
+     * @param right Another value.
+     * @return Whether the values are strings with the same characters.
+     */
+    static boolean isEqual(Object left, Object right) {
+        return isString(left) && isString(right) && length(left) == length(right)
+                && Interpreter.isEqualString(left.toString(), right.toString());
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flatten();
+        }
+        return flat;
+    }
+
+    /**
+     * Copy the characters of the rope into a flat string. The rope is walked
+     * with an explicit stack, since a rope built in a loop is as deep as the
+     * loop is long.
+     */
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof Rope rope && rope.flat == null) {
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(part);
+            }
+        }
+        flat = builder.toString();
+        left = null;
+        right = null;
+    }
+}
@@ -5,18 +5,41 @@ package us.rall.lox;
  */
 class RuntimeError extends RuntimeException {
     private final Token token;
+    private final int line;
 
     public RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token.line();
+    }
+
+    /**
+     * Create a runtime error that has no token, as raised by the {@link VM}.
+     *
+     * @param line    The source line where the error occurred.
+     * @param message The error message.
+     */
+    public RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 
     /**
      * Get the token where the error occurred.
      *
-     * @return The error {@link Token}.
+     * @return The error {@link Token}, or null if the error has no token.
      */
     public Token getToken() {
         return token;
     }
+
+    /**
+     * Get the source line where the error occurred.
+     *
+     * @return The source line.
+     */
+    public int getLine() {
+        return line;
+    }
 }
@@ -1,54 +1,27 @@
 package us.rall.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * A scanner for lexing Lox source.
  */
 public class Scanner {
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
-    }
-
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final Source source;
+    private final TokenBuffer tokens;
 
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
     public Scanner(String source) {
-        this.source = source;
+        this(Source.of(source));
     }
 
-    private void addToken(TokenType type) {
-        addToken(type, null);
+    Scanner(Source source) {
+        this.source = source;
+        tokens = new TokenBuffer(source);
     }
 
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+    private void addToken(TokenType type) {
+        tokens.add(type, start, current, line);
     }
 
     private char advance() {
@@ -61,12 +34,49 @@ public class Scanner {
         while (isAlphaNumeric(peek())) {
             advance();
         }
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) {
-            type = TokenType.IDENTIFIER;
-        }
-        addToken(type);
+        addToken(identifierType());
+    }
+
+    /**
+     * Get the type of the identifier or keyword just scanned, without copying
+     * it out of the source. The first letter and the length pick the only
+     * keyword it could be, so most identifiers are ruled out at once.
+     */
+    private TokenType identifierType() {
+        return switch (source.charAt(start)) {
+            case 'a' -> keyword("and", TokenType.AND);
+            case 'c' -> keyword("class", TokenType.CLASS);
+            case 'e' -> keyword("else", TokenType.ELSE);
+            case 'f' -> switch (current - start) {
+                case 3 -> source.charAt(start + 1) == 'o' ? keyword("for", TokenType.FOR)
+                        : keyword("fun", TokenType.FUN);
+                case 5 -> keyword("false", TokenType.FALSE);
+                default -> TokenType.IDENTIFIER;
+            };
+            case 'i' -> keyword("if", TokenType.IF);
+            case 'n' -> keyword("nil", TokenType.NIL);
+            case 'o' -> keyword("or", TokenType.OR);
+            case 'p' -> keyword("print", TokenType.PRINT);
+            case 'r' -> keyword("return", TokenType.RETURN);
+            case 's' -> keyword("super", TokenType.SUPER);
+            case 't' -> current - start == 4 && source.charAt(start + 1) == 'h' ? keyword("this", TokenType.THIS)
+                    : keyword("true", TokenType.TRUE);
+            case 'v' -> keyword("var", TokenType.VAR);
+            case 'w' -> keyword("while", TokenType.WHILE);
+            default -> TokenType.IDENTIFIER;
+        };
+    }
+
+    /**
+     * Check whether the identifier just scanned is a keyword.
+     *
+     * @param text The keyword.
+     * @param type The type of the keyword.
+     * @return The type if the identifier is the keyword, or
+     * {@link TokenType#IDENTIFIER} if not.
+     */
+    private TokenType keyword(String text, TokenType type) {
+        return source.matches(start, current, text) ? type : TokenType.IDENTIFIER;
     }
 
     private boolean isAlpha(char c) {
@@ -94,18 +104,21 @@ public class Scanner {
     }
 
     private void number() {
+        long integer = source.charAt(start) - '0';
         while (isDigit(peek())) {
-            advance();
+            integer = integer * 10 + advance() - '0';
         }
         if (peek() == '.' && isDigit(peekNext())) {
             advance();
+            while (isDigit(peek())) {
+                advance();
+            }
+        } else if (current - start <= 15) {
+            // The integer is exact, since it is below 2^53.
+            tokens.addNumber(start, current, line, integer);
+            return;
         }
-        while (isDigit(peek())) {
-            advance();
-        }
-        String text = source.substring(start, current);
-        double value = Double.parseDouble(text);
-        addToken(TokenType.NUMBER, value);
+        tokens.addNumber(start, current, line, Double.parseDouble(source.ascii(start, current)));
     }
 
     private char peek() {
@@ -208,6 +221,11 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
+                    // Report a character that is not ASCII once rather than
+                    // once for each of its bytes.
+                    while ((peek() & 0xc0) == 0x80) {
+                        advance();
+                    }
                     Lox.error(line, "Unexpected character.");
                 }
                 break;
@@ -217,14 +235,14 @@ public class Scanner {
     /**
      * Scans the tokens in the source.
      *
-     * @return A <code>List</code> of parsed <code>Token</code> objects.
+     * @return The scanned tokens.
      */
-    public List<Token> scanTokens() {
+    public TokenBuffer scanTokens() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(TokenType.EOF, current, current, line);
         return tokens;
     }
 
@@ -240,9 +258,6 @@ public class Scanner {
             return;
         }
         advance();
-
-        // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
-        addToken(TokenType.STRING, value);
+        addToken(TokenType.STRING);
     }
 }
@@ -0,0 +1,103 @@
+package us.rall.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The layout of a {@link LoxInstance}'s fields: which index of the instance's
+ * value array holds each field. Shapes are shared by every instance of a class
+ * that gained the same fields in the same order. Adding a field moves an
+ * instance along a transition to the next shape, which is created once and
+ * then reused.
+ * <p>
+ * A shape records only the field it added and a pointer to its parent, so a
+ * chain of n fields takes n small shapes rather than n copies of a table.
+ * Property sites cache the indices they find, so looking a field up is rare;
+ * a short chain is searched directly, and a long one builds a table the first
+ * time it is searched.
+ */
+class Shape {
+    /**
+     * The number of fields above which a shape keeps a table of its indices
+     * rather than searching its chain.
+     */
+    private static final int MAX_SEARCH = 8;
+
+    private final Shape parent;
+    /**
+     * The name of the field this shape added, at index {@code size - 1}, or
+     * null for a root shape.
+     */
+    private final String name;
+    private final int size;
+    /**
+     * The index of every field, built on the first lookup in a long shape.
+     */
+    private Map<String, Integer> indices = null;
+    private Map<String, Shape> transitions = null;
+
+    /**
+     * Create an empty root shape.
+     */
+    Shape() {
+        this(null, null, 0);
+    }
+
+    private Shape(Shape parent, String name, int size) {
+        this.parent = parent;
+        this.name = name;
+        this.size = size;
+    }
+
+    /**
+     * Get the index of a field.
+     *
+     * @param name The name of the field.
+     * @return The index of the field, or -1 if the shape has no such field.
+     */
+    int indexOf(String name) {
+        if (size > MAX_SEARCH) {
+            if (indices == null) {
+                indices = new HashMap<>();
+                for (Shape shape = this; shape.name != null; shape = shape.parent) {
+                    indices.put(shape.name, shape.size - 1);
+                }
+            }
+            Integer index = indices.get(name);
+            return index == null ? -1 : index;
+        }
+        for (Shape shape = this; shape.name != null; shape = shape.parent) {
+            if (shape.name.equals(name)) {
+                return shape.size - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the shape that results from adding a field to this one.
+     *
+     * @param name The name of the new field.
+     * @return The next shape, whose last index holds the new field.
+     */
+    Shape withField(String name) {
+        if (transitions == null) {
+            transitions = new HashMap<>();
+        }
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name, size + 1);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+
+    /**
+     * Get the number of fields in the shape.
+     *
+     * @return The number of fields.
+     */
+    int size() {
+        return size;
+    }
+}
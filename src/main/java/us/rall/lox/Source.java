@@ -0,0 +1,144 @@
+package us.rall.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lox source code as UTF-8 bytes. A script file is mapped into memory rather
+ * than read and decoded, so the scanner reads the file's own pages and the
+ * only strings made from it are the lexemes and literals of its tokens. All
+ * of Lox's syntax is ASCII; other characters can appear only in string
+ * literals and comments.
+ */
+final class Source {
+    /**
+     * The strings of the single ASCII characters, which make up most
+     * punctuation tokens.
+     */
+    private static final String[] CHARACTERS = new String[128];
+
+    static {
+        for (char c = 0; c < CHARACTERS.length; c++) {
+            CHARACTERS[c] = String.valueOf(c);
+        }
+    }
+
+    private final ByteBuffer bytes;
+    /**
+     * The bytes of the text being copied out of the source.
+     */
+    private byte[] scratch = new byte[64];
+
+    private Source(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Map a script file into memory.
+     *
+     * @param path The path of the file.
+     * @return The file's source.
+     * @throws IOException If the file cannot be read.
+     */
+    static Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Source(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Get the source of a piece of text.
+     *
+     * @param text The text.
+     * @return The text's source.
+     */
+    static Source of(String text) {
+        return new Source(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Get the number of bytes in the source.
+     */
+    int length() {
+        return bytes.limit();
+    }
+
+    /**
+     * Get a byte of the source as a character, which is only meaningful if it
+     * is ASCII.
+     *
+     * @param index The index of the byte.
+     * @return The byte, from 0 to 255.
+     */
+    char charAt(int index) {
+        return (char) (bytes.get(index) & 0xff);
+    }
+
+    /**
+     * Get text that is known to be ASCII, such as a lexeme.
+     *
+     * @param start The index of the first byte.
+     * @param end   The index after the last byte.
+     * @return The text.
+     */
+    String ascii(int start, int end) {
+        if (end - start == 1) {
+            return CHARACTERS[charAt(start) & 0x7f];
+        }
+        return new String(copy(start, end), 0, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decode text that may hold characters other than ASCII.
+     *
+     * @param start The index of the first byte.
+     * @param end   The index after the last byte.
+     * @return The text.
+     */
+    String text(int start, int end) {
+        if (end - start == 1 && charAt(start) < 0x80) {
+            return CHARACTERS[charAt(start)];
+        }
+        byte[] copy = copy(start, end);
+        int length = end - start;
+        for (int i = 0; i < length; i++) {
+            if (copy[i] < 0) {
+                return new String(copy, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+        return new String(copy, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Check whether a range of the source holds some ASCII text.
+     *
+     * @param start The index of the first byte.
+     * @param end   The index after the last byte.
+     * @param text  The text.
+     * @return Whether the range holds exactly the text.
+     */
+    boolean matches(int start, int end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (bytes.get(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] copy(int start, int end) {
+        int length = end - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        bytes.get(start, scratch, 0, length);
+        return scratch;
+    }
+}
@@ -99,6 +99,7 @@ abstract class Stmt {
      */
     static class Block extends Stmt {
         private final List<Stmt> statements;
+        private int frameSize;
 
         Block(List<Stmt> statements) {
             this.statements = statements;
@@ -112,6 +113,14 @@ abstract class Stmt {
         public List<Stmt> getStatements() {
             return statements;
         }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        public void setFrameSize(int frameSize) {
+            this.frameSize = frameSize;
+        }
     }
 
     /**
@@ -121,6 +130,11 @@ abstract class Stmt {
         private final Token name;
         private final Expr.Variable superclass;
         private final List<Stmt.Function> methods;
+        private int slot = -1;
+        private boolean boxed;
+        private int superSlot = -1;
+        private int frameSize;
+        private int fieldCount;
 
         Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
             this.name = name;
@@ -144,6 +158,46 @@ abstract class Stmt {
         public List<Function> getMethods() {
             return methods;
         }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public boolean isBoxed() {
+            return boxed;
+        }
+
+        public void setBoxed(boolean boxed) {
+            this.boxed = boxed;
+        }
+
+        public int getSuperSlot() {
+            return superSlot;
+        }
+
+        public void setSuperSlot(int superSlot) {
+            this.superSlot = superSlot;
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        public void setFrameSize(int frameSize) {
+            this.frameSize = frameSize;
+        }
+
+        public int getFieldCount() {
+            return fieldCount;
+        }
+
+        public void setFieldCount(int fieldCount) {
+            this.fieldCount = fieldCount;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
     }
 
     /**
@@ -173,6 +227,13 @@ abstract class Stmt {
         private final Token name;
         private final List<Token> params;
         private final List<Stmt> body;
+        private int slot = -1;
+        private boolean boxed;
+        private int frameSize;
+        private List<Capture> captures = List.of();
+        private boolean[] boxedParams;
+        private int invocations;
+        private JitCode code;
 
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
@@ -196,6 +257,62 @@ abstract class Stmt {
         public List<Stmt> getBody() {
             return body;
         }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
+
+        public boolean isBoxed() {
+            return boxed;
+        }
+
+        public void setBoxed(boolean boxed) {
+            this.boxed = boxed;
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        public void setFrameSize(int frameSize) {
+            this.frameSize = frameSize;
+        }
+
+        public List<Capture> getCaptures() {
+            return captures;
+        }
+
+        public void setCaptures(List<Capture> captures) {
+            this.captures = captures;
+        }
+
+        public boolean[] getBoxedParams() {
+            return boxedParams;
+        }
+
+        public void setBoxedParams(boolean[] boxedParams) {
+            this.boxedParams = boxedParams;
+        }
+
+        public int getInvocations() {
+            return invocations;
+        }
+
+        public void setInvocations(int invocations) {
+            this.invocations = invocations;
+        }
+
+        public JitCode getCode() {
+            return code;
+        }
+
+        public void setCode(JitCode code) {
+            this.code = code;
+        }
     }
 
     /**
@@ -256,6 +373,7 @@ abstract class Stmt {
     static class Return extends Stmt {
         private final Token keyword;
         private final Expr value;
+        private boolean tailCall;
 
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
@@ -274,6 +392,14 @@ abstract class Stmt {
         public Expr getValue() {
             return value;
         }
+
+        public boolean isTailCall() {
+            return tailCall;
+        }
+
+        public void setTailCall(boolean tailCall) {
+            this.tailCall = tailCall;
+        }
     }
 
     /**
@@ -308,6 +434,8 @@ abstract class Stmt {
     static class Var extends Stmt {
         private final Token name;
         private final Expr initializer;
+        private int slot = -1;
+        private boolean boxed;
 
         Var(Token name, Expr initializer) {
             this.name = name;
@@ -326,5 +454,21 @@ abstract class Stmt {
         public Expr getInitializer() {
             return initializer;
         }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public boolean isBoxed() {
+            return boxed;
+        }
+
+        public void setBoxed(boolean boxed) {
+            this.boxed = boxed;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
     }
 }
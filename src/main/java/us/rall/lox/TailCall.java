@@ -0,0 +1,16 @@
+package us.rall.lox;
+
+import java.util.List;
+
+/**
+ * A call in tail position, returned by the function making it instead of
+ * being made on the Java stack. {@link LoxFunction} makes the call once the
+ * returning function's frame is gone, so tail recursion runs in constant
+ * stack.
+ *
+ * @param function  The function to call.
+ * @param receiver  The receiver if the function is a method, or null.
+ * @param arguments The arguments to the call.
+ */
+record TailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments) {
+}
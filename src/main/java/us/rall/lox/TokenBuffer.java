@@ -0,0 +1,108 @@
+package us.rall.lox;
+
+import java.util.Arrays;
+
+/**
+ * The tokens scanned from a source, kept in parallel arrays rather than as
+ * {@link Token} objects. The parser reads the types of tokens directly and
+ * makes a token only when it keeps one in the syntax tree or reports an error
+ * at one, so most punctuation and keywords never become objects. Lexemes and
+ * string literals are copied out of the source when their token is made.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Source source;
+    private byte[] types = new byte[1024];
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] lines = new int[1024];
+    /**
+     * The values of number tokens, and zero for every other token.
+     */
+    private double[] numbers = new double[1024];
+    private int size = 0;
+
+    TokenBuffer(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Add a token.
+     *
+     * @param type  The type of the token.
+     * @param start The index of the token's first byte in the source.
+     * @param end   The index after the token's last byte.
+     * @param line  The source line of the token.
+     */
+    void add(TokenType type, int start, int end, int line) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = end - start;
+        lines[size] = line;
+        size++;
+    }
+
+    /**
+     * Add a number token.
+     *
+     * @param start The index of the token's first byte in the source.
+     * @param end   The index after the token's last byte.
+     * @param line  The source line of the token.
+     * @param value The value of the number.
+     */
+    void addNumber(int start, int end, int line, double value) {
+        add(TokenType.NUMBER, start, end, line);
+        numbers[size - 1] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    /**
+     * Get the value of a number or string token.
+     *
+     * @param index The index of the token.
+     * @return The value, or null if the token is neither.
+     */
+    Object literal(int index) {
+        return switch (type(index)) {
+            case NUMBER -> numbers[index];
+            // Trim the surrounding quotes. Interning the value lets equal
+            // literals compare by identity.
+            case STRING -> source.text(starts[index] + 1, starts[index] + lengths[index] - 1).intern();
+            default -> null;
+        };
+    }
+
+    /**
+     * Make a token.
+     *
+     * @param index The index of the token.
+     * @return The token.
+     */
+    Token token(int index) {
+        TokenType type = type(index);
+        int start = starts[index];
+        String lexeme = source.text(start, start + lengths[index]);
+        if (type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER) {
+            // Names are interned so that the maps keyed by them compare by
+            // identity.
+            lexeme = lexeme.intern();
+        }
+        return new Token(type, lexeme, literal(index), lines[index]);
+    }
+}
@@ -0,0 +1,646 @@
+package us.rall.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A stack-based virtual machine for Lox. Programs are compiled to bytecode by
+ * the {@link Compiler} and executed by a single dispatch loop, producing the
+ * same output and runtime errors as the tree-walk {@link Interpreter}.
+ */
+class VM {
+    /**
+     * Pushed by {@link OpCode#PREPARE_INVOKE} in place of a method when the
+     * property being called is a field.
+     */
+    private static final Object FIELD = new Object();
+    /**
+     * The deepest the calls in progress can nest before the program is
+     * stopped with a stack overflow, which keeps runaway recursion from
+     * growing the stack until memory runs out. The limit still leaves room
+     * for recursion a million calls deep.
+     */
+    private static final int FRAMES_MAX = 1 << 21;
+
+    private final Globals globals = new Globals();
+    private Object[] stack = new Object[256];
+    private int stackTop = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+    private final Output output;
+
+    /**
+     * Create a virtual machine.
+     *
+     * @param output Where print statements write.
+     */
+    VM(Output output) {
+        this.output = output;
+        globals.define("clock", new NativeFunction(0) {
+            @Override
+            Object call(Object[] arguments) {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+        });
+    }
+
+    /**
+     * Get the globals that statements must be resolved against.
+     *
+     * @return The globals of the VM.
+     */
+    Globals getGlobals() {
+        return globals;
+    }
+
+    /**
+     * Compile and run Lox statements.
+     *
+     * @param statements The statements to run, resolved against {@link #getGlobals()}.
+     */
+    void interpret(List<Stmt> statements) {
+        Chunk script = new Compiler(globals).compile(statements);
+        Closure closure = new Closure(script);
+        push(closure);
+        try {
+            call(closure, 0, 0);
+            run();
+        } catch (RuntimeError e) {
+            output.flush();
+            Lox.runtimeError(e);
+        } finally {
+            output.flush();
+        }
+        resetStack();
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        int[] code = frame.closure.chunk.getCode();
+        Object[] constants = frame.closure.chunk.getConstants();
+        Object[] caches = frame.closure.chunk.getCaches();
+        int base = frame.base;
+        int ip = frame.ip;
+        for (; ; ) {
+            int op = code[ip++];
+            switch (op) {
+                case OpCode.CONSTANT -> push(constants[code[ip++]]);
+                case OpCode.NIL -> push(null);
+                case OpCode.TRUE -> push(true);
+                case OpCode.FALSE -> push(false);
+                case OpCode.POP -> stackTop--;
+                case OpCode.GET_LOCAL -> push(stack[base + code[ip++]]);
+                case OpCode.SET_LOCAL -> stack[base + code[ip++]] = peek(0);
+                case OpCode.GET_GLOBAL -> {
+                    int cell = code[ip++];
+                    push(globals.get(cell, (Token) constants[code[ip++]]));
+                }
+                case OpCode.DEFINE_GLOBAL -> globals.define(code[ip++], pop());
+                case OpCode.SET_GLOBAL -> {
+                    int cell = code[ip++];
+                    globals.assign(cell, (Token) constants[code[ip++]], peek(0));
+                }
+                case OpCode.GET_UPVALUE -> push(frame.closure.upvalues[code[ip++]].get(stack));
+                case OpCode.SET_UPVALUE -> frame.closure.upvalues[code[ip++]].set(stack, peek(0));
+                case OpCode.GET_PROPERTY -> {
+                    String name = (String) constants[code[ip++]];
+                    int cache = code[ip++];
+                    if (!(peek(0) instanceof Instance instance)) {
+                        throw error(frame, ip, "Only instances have properties.");
+                    }
+                    Property property = findProperty(frame, ip, caches, cache, instance, name);
+                    if (property.method == null) {
+                        stack[stackTop - 1] = instance.values[property.index];
+                    } else {
+                        stack[stackTop - 1] = new BoundMethod(instance, property.method);
+                    }
+                }
+                case OpCode.SET_PROPERTY -> {
+                    String name = (String) constants[code[ip++]];
+                    int cache = code[ip++];
+                    if (!(peek(1) instanceof Instance instance)) {
+                        throw error(frame, ip, "Only instances have fields.");
+                    }
+                    Object value = pop();
+                    Field field = findField(caches, cache, instance.shape, name);
+                    instance.setField(field.next, field.index, value);
+                    stack[stackTop - 1] = value;
+                }
+                case OpCode.CHECK_FIELDS -> {
+                    ip++;
+                    if (!(peek(0) instanceof Instance)) {
+                        throw error(frame, ip, "Only instances have fields.");
+                    }
+                }
+                case OpCode.GET_SUPER -> {
+                    String name = (String) constants[code[ip++]];
+                    Klass superclass = (Klass) pop();
+                    Instance receiver = (Instance) peek(0);
+                    stack[stackTop - 1] = bindMethod(frame, ip, superclass, receiver, name);
+                }
+                case OpCode.EQUAL -> {
+                    Object right = pop();
+                    stack[stackTop - 1] = Interpreter.isEqual(peek(0), right);
+                }
+                case OpCode.GREATER -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[stackTop - 1] = (double) peek(0) > right;
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[stackTop - 1] = (double) peek(0) >= right;
+                }
+                case OpCode.LESS -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[stackTop - 1] = (double) peek(0) < right;
+                }
+                case OpCode.LESS_EQUAL -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[stackTop - 1] = (double) peek(0) <= right;
+                }
+                case OpCode.ADD -> {
+                    Object right = pop();
+                    Object left = peek(0);
+                    if (left instanceof Double && right instanceof Double) {
+                        stack[stackTop - 1] = (double) left + (double) right;
+                    } else if (Rope.isString(left) && Rope.isString(right)) {
+                        stack[stackTop - 1] = Rope.concat(left, right);
+                    } else {
+                        throw error(frame, ip, "Operands must be two numbers or two strings.");
+                    }
+                }
+                case OpCode.SUBTRACT -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[stackTop - 1] = (double) peek(0) - right;
+                }
+                case OpCode.MULTIPLY -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[stackTop - 1] = (double) peek(0) * right;
+                }
+                case OpCode.DIVIDE -> {
+                    checkNumberOperands(frame, ip);
+                    double right = (double) pop();
+                    stack[stackTop - 1] = (double) peek(0) / right;
+                }
+                case OpCode.NOT -> stack[stackTop - 1] = !Interpreter.isTruthy(peek(0));
+                case OpCode.NEGATE -> {
+                    if (!(peek(0) instanceof Double value)) {
+                        throw error(frame, ip, "Operator must be a number.");
+                    }
+                    stack[stackTop - 1] = -value;
+                }
+                case OpCode.PRINT -> output.printValue(pop());
+                case OpCode.JUMP -> {
+                    int offset = code[ip++];
+                    ip += offset;
+                }
+                case OpCode.JUMP_IF_FALSE -> {
+                    int offset = code[ip++];
+                    if (!Interpreter.isTruthy(peek(0))) {
+                        ip += offset;
+                    }
+                }
+                case OpCode.LOOP -> {
+                    int offset = code[ip++];
+                    ip -= offset;
+                }
+                case OpCode.CALL, OpCode.INVOKE -> {
+                    int argCount = code[ip++];
+                    frame.ip = ip;
+                    if (op == OpCode.CALL) {
+                        callValue(peek(argCount), argCount, frame.closure.chunk.getLines()[ip - 1]);
+                    } else {
+                        invoke(argCount, frame.closure.chunk.getLines()[ip - 1]);
+                    }
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.chunk.getCode();
+                    constants = frame.closure.chunk.getConstants();
+                    caches = frame.closure.chunk.getCaches();
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.PREPARE_INVOKE -> {
+                    String name = (String) constants[code[ip++]];
+                    int cache = code[ip++];
+                    if (!(peek(0) instanceof Instance instance)) {
+                        throw error(frame, ip, "Only instances have properties.");
+                    }
+                    Property property = findProperty(frame, ip, caches, cache, instance, name);
+                    if (property.method == null) {
+                        stack[stackTop - 1] = instance.values[property.index];
+                        push(FIELD);
+                    } else {
+                        push(property.method);
+                    }
+                }
+                case OpCode.PREPARE_SUPER -> {
+                    String name = (String) constants[code[ip++]];
+                    Klass superclass = (Klass) peek(0);
+                    stack[stackTop - 1] = findMethod(frame, ip, superclass, name);
+                }
+                case OpCode.CLOSURE -> {
+                    Closure closure = new Closure((Chunk) constants[code[ip++]]);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++];
+                        if (isLocal) {
+                            closure.upvalues[i] = captureUpvalue(base + index);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    push(closure);
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(stackTop - 1);
+                    stackTop--;
+                }
+                case OpCode.RETURN -> {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+                    stackTop = base;
+                    if (frameCount == 0) {
+                        return;
+                    }
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.chunk.getCode();
+                    constants = frame.closure.chunk.getConstants();
+                    caches = frame.closure.chunk.getCaches();
+                    base = frame.base;
+                    ip = frame.ip;
+                }
+                case OpCode.CLASS -> push(new Klass((String) constants[code[ip++]]));
+                case OpCode.INHERIT -> {
+                    if (!(peek(1) instanceof Klass superclass)) {
+                        throw error(frame, ip, "Superclass must be a class.");
+                    }
+                    Klass subclass = (Klass) pop();
+                    subclass.methods.putAll(superclass.methods);
+                }
+                case OpCode.METHOD -> {
+                    String name = (String) constants[code[ip++]];
+                    Closure method = (Closure) pop();
+                    ((Klass) peek(0)).methods.put(name, method);
+                }
+                default -> throw new IllegalStateException("Unknown opcode %s.".formatted(op));
+            }
+        }
+    }
+
+    private void callValue(Object callee, int argCount, int line) {
+        if (callee instanceof Closure closure) {
+            call(closure, argCount, line);
+        } else if (callee instanceof BoundMethod bound) {
+            stack[stackTop - argCount - 1] = bound.receiver;
+            call(bound.method, argCount, line);
+        } else if (callee instanceof Klass klass) {
+            stack[stackTop - argCount - 1] = new Instance(klass);
+            Closure initializer = klass.methods.get("init");
+            if (initializer != null) {
+                call(initializer, argCount, line);
+            } else if (argCount != 0) {
+                throw new RuntimeError(line, "Expected 0 arguments but got %s.".formatted(argCount));
+            }
+        } else if (callee instanceof NativeFunction function) {
+            checkArity(function.arity, argCount, line);
+            Object[] arguments = Arrays.copyOfRange(stack, stackTop - argCount, stackTop);
+            Object result = function.call(arguments);
+            stackTop -= argCount + 1;
+            push(result);
+        } else {
+            throw new RuntimeError(line, "Can only call functions and classes.");
+        }
+    }
+
+    /**
+     * Call the pair pushed by {@link OpCode#PREPARE_INVOKE} or
+     * {@link OpCode#PREPARE_SUPER}, which sits below the arguments.
+     */
+    private void invoke(int argCount, int line) {
+        int methodSlot = stackTop - argCount - 1;
+        Object method = stack[methodSlot];
+        System.arraycopy(stack, methodSlot + 1, stack, methodSlot, argCount);
+        stackTop--;
+        if (method == FIELD) {
+            callValue(stack[methodSlot - 1], argCount, line);
+        } else {
+            call((Closure) method, argCount, line);
+        }
+    }
+
+    private void call(Closure closure, int argCount, int line) {
+        Chunk chunk = closure.chunk;
+        checkArity(chunk.getArity(), argCount, line);
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(line, "Stack overflow.");
+        }
+        int base = stackTop - argCount - 1;
+        if (base + chunk.getMaxStack() > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, base + chunk.getMaxStack()));
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frameCount++;
+    }
+
+    private static void checkArity(int arity, int argCount, int line) {
+        if (argCount != arity) {
+            throw new RuntimeError(line, "Expected %s arguments but got %s.".formatted(arity, argCount));
+        }
+    }
+
+    private Closure findMethod(CallFrame frame, int ip, Klass klass, String name) {
+        Closure method = klass.methods.get(name);
+        if (method == null) {
+            throw error(frame, ip, "Undefined property '%s'.".formatted(name));
+        }
+        return method;
+    }
+
+    private BoundMethod bindMethod(CallFrame frame, int ip, Klass klass, Instance receiver, String name) {
+        return new BoundMethod(receiver, findMethod(frame, ip, klass, name));
+    }
+
+    /**
+     * Find what a property of an instance is, through the inline cache of the
+     * instruction reading it. A shape fixes an instance's class as well as its
+     * fields, and a class gets no methods once it has instances, so a cached
+     * property holds for every instance of the same shape.
+     */
+    private Property findProperty(CallFrame frame, int ip, Object[] caches, int cache, Instance instance,
+                                  String name) {
+        Shape shape = instance.shape;
+        if (caches[cache] instanceof Property property && property.shape == shape) {
+            return property;
+        }
+        int index = shape.indexOf(name);
+        Closure method = index >= 0 ? null : findMethod(frame, ip, instance.klass, name);
+        Property property = new Property(shape, index, method);
+        caches[cache] = property;
+        return property;
+    }
+
+    /**
+     * Find where a write puts a field of an instance with a given shape,
+     * through the inline cache of the instruction. The field is added to the
+     * shape if it is new.
+     */
+    private static Field findField(Object[] caches, int cache, Shape shape, String name) {
+        if (caches[cache] instanceof Field field && field.shape == shape) {
+            return field;
+        }
+        int index = shape.indexOf(name);
+        Shape next = shape;
+        if (index < 0) {
+            next = shape.withField(name);
+            index = next.size() - 1;
+        }
+        Field field = new Field(shape, index, next);
+        caches[cache] = field;
+        return field;
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+        Upvalue created = new Upvalue(slot);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void checkNumberOperands(CallFrame frame, int ip) {
+        if (peek(0) instanceof Double && peek(1) instanceof Double) {
+            return;
+        }
+        throw error(frame, ip, "Operands must be numbers.");
+    }
+
+    private static RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.chunk.getLines()[ip - 1], message);
+    }
+
+    /**
+     * Empty the stack, releasing every value left on it or above it.
+     */
+    private void resetStack() {
+        Arrays.fill(stack, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void push(Object value) {
+        stack[stackTop++] = value;
+    }
+
+    private Object pop() {
+        return stack[--stackTop];
+    }
+
+    private Object peek(int distance) {
+        return stack[stackTop - 1 - distance];
+    }
+
+    /**
+     * An active function call.
+     */
+    private static class CallFrame {
+        private Closure closure;
+        private int ip;
+        private int base;
+    }
+
+    /**
+     * A compiled function together with the variables it captured.
+     */
+    private static class Closure {
+        private final Chunk chunk;
+        private final Upvalue[] upvalues;
+
+        Closure(Chunk chunk) {
+            this.chunk = chunk;
+            this.upvalues = new Upvalue[chunk.getUpvalueCount()];
+        }
+
+        @Override
+        public String toString() {
+            return chunk.toString();
+        }
+    }
+
+    /**
+     * A captured variable. While open it refers to a live stack slot; once the
+     * slot goes out of scope the value moves into the upvalue itself.
+     */
+    private static class Upvalue {
+        private int slot;
+        private Object closed;
+        private Upvalue next;
+
+        Upvalue(int slot) {
+            this.slot = slot;
+        }
+
+        Object get(Object[] stack) {
+            return slot >= 0 ? stack[slot] : closed;
+        }
+
+        void set(Object[] stack, Object value) {
+            if (slot >= 0) {
+                stack[slot] = value;
+            } else {
+                closed = value;
+            }
+        }
+    }
+
+    /**
+     * A Lox class at runtime. Inherited methods are copied in by
+     * {@link OpCode#INHERIT}, so method lookup never walks the superclass chain.
+     */
+    private static class Klass {
+        private final String name;
+        private final Map<String, Closure> methods = new HashMap<>();
+        private final Shape rootShape = new Shape();
+
+        Klass(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * An instance of a Lox class. Its fields are laid out by a {@link Shape},
+     * as in a {@link LoxInstance}.
+     */
+    private static class Instance {
+        private static final Object[] NO_VALUES = new Object[0];
+
+        private final Klass klass;
+        private Shape shape;
+        private Object[] values = NO_VALUES;
+
+        Instance(Klass klass) {
+            this.klass = klass;
+            this.shape = klass.rootShape;
+        }
+
+        void setField(Shape next, int index, Object value) {
+            if (next != shape) {
+                shape = next;
+                if (index >= values.length) {
+                    values = Arrays.copyOf(values, Math.max(next.size(), values.length * 2));
+                }
+            }
+            values[index] = value;
+        }
+
+        @Override
+        public String toString() {
+            return "%s instance".formatted(klass);
+        }
+    }
+
+    /**
+     * The inline cache of a property read: for instances of one shape, the
+     * index of the field, or the method the property resolves to.
+     *
+     * @param shape  The shape of the instances.
+     * @param index  The index of the field, or -1 if the property is a method.
+     * @param method The method, or null if the property is a field.
+     */
+    private record Property(Shape shape, int index, Closure method) {
+    }
+
+    /**
+     * The inline cache of a field write: for instances of one shape, the
+     * index of the field and the shape they have after the write.
+     *
+     * @param shape The shape of the instances before the write.
+     * @param index The index of the field.
+     * @param next  The shape after the write, which differs if it adds the field.
+     */
+    private record Field(Shape shape, int index, Shape next) {
+    }
+
+    /**
+     * A method bound to its receiver, created when a method is used as a value.
+     */
+    private static class BoundMethod {
+        private final Instance receiver;
+        private final Closure method;
+
+        BoundMethod(Instance receiver, Closure method) {
+            this.receiver = receiver;
+            this.method = method;
+        }
+
+        @Override
+        public String toString() {
+            return method.toString();
+        }
+    }
+
+    /**
+     * A function implemented in Java.
+     */
+    private abstract static class NativeFunction {
+        private final int arity;
+
+        NativeFunction(int arity) {
+            this.arity = arity;
+        }
+
+        abstract Object call(Object[] arguments);
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+}
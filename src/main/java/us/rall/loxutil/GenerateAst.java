@@ -14,28 +14,31 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Assign   : Token name, Expr value | int depth = -1, int slot = -1, boolean boxed",
+                "Binary   : Expr left, Token operator, Expr right | BinaryOperation operation = BinaryOperation.UNINITIALIZED",
+                "Call     : Expr callee, Token paren, List<Expr> arguments | LoxCallable target",
+                "Get      : Expr object, Token name | final PropertyCache.Get cache = new PropertyCache.Get()",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Set      : Expr object, Token name, Expr value | final PropertyCache.Set cache = new PropertyCache.Set()",
+                "Super    : Token keyword, Token method | int depth = -1, int slot = -1, int thisDepth = -1, int thisSlot = -1,"
+                        + " LoxClass targetClass, LoxFunction target",
+                "This     : Token keyword | int depth = -1, int slot = -1",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"));
+                "Variable : Token name | int depth = -1, int slot = -1, boolean boxed"));
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+                "Block      : List<Stmt> statements | int frameSize",
+                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1, boolean boxed,"
+                        + " int superSlot = -1, int frameSize, int fieldCount",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, boolean boxed, int frameSize,"
+                        + " List<Capture> captures = List.of(), boolean[] boxedParams, int invocations, JitCode code",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
+                "Return     : Token keyword, Expr value | boolean tailCall",
                 "While      : Expr condition, Stmt body",
-                "Var        : Token name, Expr initializer"));
+                "Var        : Token name, Expr initializer | int slot = -1, boolean boxed"));
     }
 
     private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
@@ -53,8 +56,9 @@ public class GenerateAst {
             // The AST classes.
             for (String type : types) {
                 String className = type.split(":")[0].trim();
-                String fields = type.split(":")[1].trim();
-                defineType(writer, baseName, className, fields);
+                String[] fields = type.split(":")[1].split("\\|");
+                String resolved = fields.length > 1 ? fields[1].trim() : "";
+                defineType(writer, baseName, className, fields[0].trim(), resolved);
             }
 
             writer.println("}");
@@ -73,7 +77,8 @@ public class GenerateAst {
         writer.println();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String resolvedList) {
         String declaration = "static class %s extends %s {".formatted(className, baseName);
         writer.println(indent(declaration, 1));
 
@@ -82,6 +87,13 @@ public class GenerateAst {
         for (String field : fields) {
             writer.println(indent("final %s;".formatted(field), 2));
         }
+
+        // Mutable fields filled in by the resolver and the interpreter.
+        if (!resolvedList.isEmpty()) {
+            for (String field : resolvedList.split(", ")) {
+                writer.println(indent("%s;".formatted(field), 2));
+            }
+        }
         writer.println();
 
         // Constructor.